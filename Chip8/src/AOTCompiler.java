@@ -0,0 +1,326 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Translates the reachable code of a ROM ahead of time into a JVM class
+ * The class is stored in a cache directory under a name made from VERSION and
+ * the ROM hash, so later runs load it directly and start at compiled speed.
+ *
+ * Code is found and split into basic blocks by ROMAnalyzer. Each block
+ * becomes one method, see CompiledCode. FX0A, 00FD, F000 NNNN and invalid
+ * opcodes are left to the interpreter.
+ * Translation goes through Java source and the system Java compiler, so
+ * without a JDK the interpreter is used.
+ *
+ * A block retires all of its instructions before the timers run, so only the
+ * first instruction of a block may use the timers, as with Superinstructions.
+ * A block ends after an instruction that writes memory, so modified code is
+ * found by CompiledCode#blockAt and falls back to the interpreter.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class AOTCompiler {
+    public static final int MAX_BLOCK = 64;//Instructions per block
+    //Part of the name of every compiled class, raise it whenever translation changes
+    //so classes cached by older versions are not loaded
+    public static final int VERSION = 2;
+
+    /**
+     * Loads the compiled class of a ROM, translating it first if it is not cached
+     *
+     * @param rom The ROM as returned by ApplicationLoader#getROMFromFile
+     * @param hash Hash of the ROM, see ApplicationLoader#hashROM
+     * @param cacheDir Directory holding compiled ROMs
+     * @return The compiled code, or null if it cannot be compiled
+     */
+    public static CompiledCode load(int[] rom, long hash, File cacheDir){
+        String name = "Chip8AOT_v" + VERSION + "_" + Long.toHexString(hash);
+        try{
+            if(!new File(cacheDir, name + ".class").exists() && !compile(rom, name, cacheDir))
+                return null;
+            URLClassLoader loader = new URLClassLoader(new URL[]{ cacheDir.toURI().toURL() },
+                    AOTCompiler.class.getClassLoader());
+            Class<?> compiled = loader.loadClass(name);
+            return (CompiledCode)compiled.getConstructor(int[].class).newInstance((Object)rom);
+        }
+        catch(Exception e){
+            System.out.println("Cannot load compiled ROM, using the interpreter");
+            return null;
+        }
+    }
+
+    /**
+     * Translates rom and stores the class file in cacheDir
+     * The class is compiled in a temporary directory and moved into place, so
+     * several processes can share the cache
+     */
+    private static boolean compile(int[] rom, String name, File cacheDir) throws IOException{
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null)
+            return false;
+        cacheDir.mkdirs();
+        File work = Files.createTempDirectory(cacheDir.toPath(), "compile").toFile();
+        File source = new File(work, name + ".java");
+        File compiled = new File(work, name + ".class");
+        try{
+            Writer out = new FileWriter(source);
+            try{
+                out.write(translate(rom, name));
+            }
+            finally{
+                out.close();
+            }
+            int result = compiler.run(null, null, null, "-nowarn", "-d", work.getPath(),
+                    "-cp", System.getProperty("java.class.path"), source.getPath());
+            if(result != 0)
+                return false;
+            Files.move(compiled.toPath(), new File(cacheDir, name + ".class").toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        finally{
+            source.delete();
+            compiled.delete();
+            work.delete();
+        }
+    }
+
+    /**
+     * Translates the reachable code of rom into the source of a CompiledCode class
+     *
+     * @param rom The ROM
+     * @param name Name of the class
+     * @return Java source of the class
+     */
+    public static String translate(int[] rom, String name){
+        ROMAnalyzer analyzer = new ROMAnalyzer(rom);
+
+        ArrayList<Integer> starts = new ArrayList<Integer>();
+        ArrayList<Integer> ends = new ArrayList<Integer>();
+        StringBuilder methods = new StringBuilder();
+        for(int start = CPU.ROM_OFFSET; start < analyzer.getSize(); start++){
+            if(!analyzer.isLeader(start))
+                continue;
+            StringBuilder body = new StringBuilder();
+            int end = translateBlock(rom, start, analyzer, body);
+            if(end == start)
+                continue;//Nothing the compiler handles at this address
+            methods.append("    // 0x").append(Integer.toHexString(start)).append(" - 0x")
+                   .append(Integer.toHexString(end - 1)).append("\n");
+            methods.append("    private static int b").append(starts.size())
+                   .append("(Chip8 cpu, State s){\n").append(body).append("    }\n\n");
+            starts.add(start);
+            ends.add(end);
+        }
+
+        StringBuilder src = new StringBuilder();
+        src.append("// Generated by AOTCompiler, do not edit\n");
+        src.append("public class ").append(name).append(" extends CompiledCode {\n");
+        src.append("    private static final Instruction[] T = InstructionTable.TABLE;\n\n");
+        src.append("    public ").append(name).append("(int[] rom){\n");
+        src.append("        super(rom, new int[]{").append(join(starts)).append("},\n");
+        src.append("              new int[]{").append(join(ends)).append("});\n");
+        src.append("    }\n\n");
+        src.append("    protected int run(int block, Chip8 cpu, State s){\n");
+        src.append("        switch(block){\n");
+        for(int i = 0; i < starts.size(); i++)
+            src.append("            case ").append(i).append(": return b").append(i).append("(cpu, s);\n");
+        src.append("            default: return 0;\n");
+        src.append("        }\n");
+        src.append("    }\n\n");
+        src.append(methods);
+        src.append("}\n");
+        return src.toString();
+    }
+
+    /**
+     * Writes the body of the block starting at start
+     *
+     * @return Address after the last byte the block was compiled from, start if there is no block
+     */
+    private static int translateBlock(int[] rom, int start, ROMAnalyzer analyzer, StringBuilder body){
+        int pageEnd = (start | (State.PAGE_SIZE - 1)) + 1;//Blocks never cross a page
+        int address = start;
+        int count = 0;
+        while(true){
+            if(count > 0 && (analyzer.isLeader(address) || !analyzer.isCode(address)))
+                break;
+            if(address + 2 > pageEnd || count == MAX_BLOCK)
+                break;
+            int opcode = opcodeAt(rom, address);
+            Instruction instruction = InstructionTable.TABLE[opcode];
+            if(instruction instanceof InstructionTable.WaitKey || instruction instanceof InstructionTable.Invalid
+                    || instruction instanceof InstructionTable.Exit || instruction instanceof InstructionTable.LongIndex)
+                break;
+            if(count > 0 && usesTimers(instruction))
+                break;
+            //Where an inline skip goes depends on the opcode after it, so that opcode
+            //is part of the block and must be in the ROM and the page
+            boolean readsNext = isInlineSkip(instruction);
+            if(readsNext && (address + 4 > pageEnd || address + 4 - CPU.ROM_OFFSET > rom.length))
+                break;
+
+            count++;
+            if(translate(rom, instruction, opcode, address, count, body))
+                return readsNext ? address + 4 : address + 2;//Block ended with a jump, skip or memory write
+            address += 2;
+        }
+        if(count == 0)
+            return start;
+        body.append("        s.setProgramCounter(0x").append(Integer.toHexString(address)).append(");\n");
+        body.append("        return ").append(count).append(";\n");
+        return address;
+    }
+
+    /**
+     * Writes the Java for one instruction, mirroring InstructionTable
+     * Instructions that are not written inline call the table with the program counter set
+     *
+     * @return True if the instruction ends the block: jumps, skips and memory writes,
+     * so code written by the block is checked again before it runs
+     */
+    private static boolean translate(int[] rom, Instruction instruction, int opcode, int address, int count, StringBuilder body){
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        String vx = "s.getV(" + x + ")";
+        String vy = "s.getV(" + y + ")";
+        String nn = "0x" + Integer.toHexString(opcode & 0x00FF);
+        String nnn = "0x" + Integer.toHexString(opcode & 0x0FFF);
+        String next = "0x" + Integer.toHexString(address + 2);
+        boolean longNext = isInlineSkip(instruction) && opcodeAt(rom, address + 2) == 0xF000;
+        String skip = "0x" + Integer.toHexString(address + (longNext ? 6 : 4));//Skips all of F000 NNNN
+        String ret = "        return " + count + ";\n";
+
+        body.append("        // ").append(String.format("%04X", opcode)).append("\n");
+        if(instruction instanceof InstructionTable.Set)
+            line(body, "s.setV(" + x + ", " + nn + ");");
+        else if(instruction instanceof InstructionTable.Add)
+            line(body, "s.setV(" + x + ", (" + vx + " + " + nn + ") & 0xFF);");
+        else if(instruction instanceof InstructionTable.Copy)
+            line(body, "s.setV(" + x + ", " + vy + ");");
+        else if(instruction instanceof InstructionTable.Or)
+            line(body, "s.setV(" + x + ", " + vx + " | " + vy + ");");
+        else if(instruction instanceof InstructionTable.And)
+            line(body, "s.setV(" + x + ", " + vx + " & " + vy + ");");
+        else if(instruction instanceof InstructionTable.Xor)
+            line(body, "s.setV(" + x + ", " + vx + " ^ " + vy + ");");
+        else if(instruction instanceof InstructionTable.AddRegisters){
+            line(body, "s.setV(0xF, " + vy + " > (0xFF - " + vx + ") ? 1 : 0);");
+            line(body, "s.setV(" + x + ", " + vx + " + " + vy + ");");
+        }
+        else if(instruction instanceof InstructionTable.SubtractRegisters){
+            line(body, "s.setV(0xF, " + vy + " > " + vx + " ? 0 : 1);");
+            line(body, "s.setV(" + x + ", " + vx + " - " + vy + ");");
+        }
+        else if(instruction instanceof InstructionTable.ShiftRight){
+            line(body, "s.setV(0xF, " + vx + " & 0x1);");
+            line(body, "s.setV(" + x + ", " + vx + " >> 1);");
+        }
+        else if(instruction instanceof InstructionTable.ReverseSubtract){
+            line(body, "s.setV(0xF, " + vx + " > " + vy + " ? 0 : 1);");
+            line(body, "s.setV(" + x + ", " + vy + " - " + vx + ");");
+        }
+        else if(instruction instanceof InstructionTable.ShiftLeft){
+            line(body, "s.setV(0xF, " + vx + " >> 7);");
+            line(body, "s.setV(" + x + ", " + vx + " << 1);");
+        }
+        else if(instruction instanceof InstructionTable.SetIndex)
+            line(body, "s.setIndexReg(" + nnn + ");");
+        else if(instruction instanceof InstructionTable.Jump){
+            line(body, "s.setProgramCounter(" + nnn + ");");
+            body.append(ret);
+            return true;
+        }
+        else if(instruction instanceof InstructionTable.Call){
+            line(body, "s.addToStack(0x" + Integer.toHexString(address) + ");");
+            line(body, "s.setProgramCounter(" + nnn + ");");
+            body.append(ret);
+            return true;
+        }
+        else if(instruction instanceof InstructionTable.Return){
+            line(body, "s.setProgramCounter(s.popFromStack() + 2);");
+            body.append(ret);
+            return true;
+        }
+        else if(instruction instanceof InstructionTable.JumpOffset){
+            line(body, "s.setProgramCounter(" + nnn + " + s.getV(0));");
+            body.append(ret);
+            return true;
+        }
+        else if(isInlineSkip(instruction)){
+            String test = instruction instanceof InstructionTable.SkipIfEqual ? vx + " == " + nn
+                    : instruction instanceof InstructionTable.SkipIfNotEqual ? vx + " != " + nn
+                    : instruction instanceof InstructionTable.SkipIfRegistersEqual ? vx + " == " + vy
+                    : vx + " != " + vy;
+            line(body, "s.setProgramCounter(" + test + " ? " + skip + " : " + next + ");");
+            body.append(ret);
+            return true;
+        }
+        else{
+            //Draws, memory, timers, random numbers and keys run through the table
+            line(body, "s.setProgramCounter(0x" + Integer.toHexString(address) + ");");
+            line(body, "T[0x" + Integer.toHexString(opcode) + "].execute(cpu, s);");
+            if(ROMAnalyzer.isSkip(instruction) || writesMemory(instruction)){
+                body.append(ret);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void line(StringBuilder body, String statement){
+        body.append("        ").append(statement).append("\n");
+    }
+
+    /**
+     * @return True if the instruction is a skip written inline, which reads the opcode after it
+     */
+    private static boolean isInlineSkip(Instruction instruction){
+        return instruction instanceof InstructionTable.SkipIfEqual
+            || instruction instanceof InstructionTable.SkipIfNotEqual
+            || instruction instanceof InstructionTable.SkipIfRegistersEqual
+            || instruction instanceof InstructionTable.SkipIfRegistersNotEqual;
+    }
+
+    /**
+     * @return True if the instruction writes memory, which may hold the rest of the block
+     */
+    private static boolean writesMemory(Instruction instruction){
+        return instruction instanceof InstructionTable.Store
+            || instruction instanceof InstructionTable.BCD
+            || instruction instanceof InstructionTable.SaveRange;
+    }
+
+    /**
+     * @return True if the instruction reads or writes a timer
+     */
+    private static boolean usesTimers(Instruction instruction){
+        return instruction instanceof InstructionTable.GetDelay
+            || instruction instanceof InstructionTable.SetDelay
+            || instruction instanceof InstructionTable.SetSound;
+    }
+
+    private static int opcodeAt(int[] rom, int address){
+        return (rom[address - CPU.ROM_OFFSET] << 8 | rom[address + 1 - CPU.ROM_OFFSET]) & 0xFFFF;
+    }
+
+    private static String join(ArrayList<Integer> values){
+        StringBuilder out = new StringBuilder();
+        for(int i = 0; i < values.size(); i++){
+            if(i > 0)
+                out.append(", ");
+            out.append("0x").append(Integer.toHexString(values.get(i)));
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,90 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the emulation core allocates nothing once it is warmed up
+ * Each ROM is run until every instruction it reaches has been decoded, then
+ * the bytes allocated by this thread over the measured cycles are read from
+ * the ThreadMXBean. The measured loop runs cycles, ticks the keys and publishes
+ * the framebuffer the way Window does, so a regression anywhere in that path
+ * shows up here. ROMs that rewrite their own code decode again after every
+ * write, and are expected to allocate.
+ *
+ * Usage: java AllocationCheck [-cycles <count>] <rom file>...
+ * Exits with status 1 if any ROM allocated
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class AllocationCheck {
+    public static final long WARMUP_CYCLES = 1000000;
+
+    /**
+     * Runs rom and returns the bytes allocated over cycles cycles after the warm up
+     *
+     * @param rom The ROM
+     * @param cycles Cycles to measure
+     * @return Bytes allocated, or -1 if the JVM cannot measure allocation
+     */
+    public static long allocatedBytes(int[] rom, long cycles){
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+        long thread = Thread.currentThread().getId();
+
+        CPU cpu = new Chip8();
+        cpu.setSoundEnabled(false);
+        cpu.setSeed(0);
+        cpu.loadROM(rom);
+        byte[] frame = new byte[CPU.MAX_FRAME_BYTES];
+        run(cpu, WARMUP_CYCLES, frame);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        run(cpu, cycles, frame);
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+
+    /**
+     * Runs cpu, pressing a key now and then and copying out every drawn frame
+     */
+    private static void run(CPU cpu, long cycles, byte[] frame){
+        long end = cpu.getCycleCount() + cycles;
+        while(cpu.getCycleCount() < end){
+            long cycle = cpu.getCycleCount();
+            if((cycle & 0x3FF) == 0)
+                cpu.setKey((int)(cycle >> 10) & 0xF, (int)(cycle >> 14) & 1);
+            cpu.emulateCycle();
+            if(cpu.getDrawFlag()){
+                cpu.setDrawFlag(false);
+                cpu.getFrameHash();
+                cpu.copyFramebuffer(frame);
+            }
+        }
+    }
+
+    public static void main(String[] args){
+        long cycles = 10000000;
+        int first = 0;
+        if(args.length >= 2 && args[0].equals("-cycles")){
+            cycles = Long.parseLong(args[1]);
+            first = 2;
+        }
+        if(first >= args.length){
+            System.out.println("Usage: java AllocationCheck [-cycles <count>] <rom file>...");
+            return;
+        }
+
+        boolean failed = false;
+        for(int i = first; i < args.length; i++){
+            long bytes = allocatedBytes(ApplicationLoader.getROMFromFile(args[i]), cycles);
+            if(bytes < 0){
+                System.out.println("Allocation cannot be measured on this JVM");
+                return;
+            }
+            System.out.println(args[i] + ": " + bytes + " bytes allocated in " + cycles + " cycles");
+            failed |= bytes != 0;
+        }
+        if(failed)
+            System.exit(1);
+    }
+}
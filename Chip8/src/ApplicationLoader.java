@@ -7,12 +7,16 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
  * The way this works is that you send a file as a parameter to a
@@ -41,6 +45,7 @@ public class ApplicationLoader{
 	/**
 	 * Imports ROM data from a rom file
 	 * If the file is not proper, will return nothing
+	 * ROMs are padded to ROM_SIZE, XO-CHIP ROMs may be up to MAX_ROM_SIZE
 	 * 
 	 * @param fileName The string name of the file
 	 * @return A formatted integer array of hexadecimal values
@@ -49,13 +54,13 @@ public class ApplicationLoader{
 	    //Initialize variables
 	    File rom = new File(fileName);
 	    long fileSize = rom.length();
-	    int[] romInfo = new int[CPU.ROM_SIZE];//Must be the size of the rom allotment
+	    int[] romInfo = new int[(int)Math.max(CPU.ROM_SIZE, Math.min(fileSize, CPU.MAX_ROM_SIZE))];//At least the size of the rom allotment
 	    FileInputStream fis = null;
 	    
 	    try{
 	        try{
 	            //If file is valid, add information to romInfo
-        	    if (openFile(rom) && fileSize < CPU.ROM_SIZE) {
+        	    if (openFile(rom) && fileSize <= CPU.MAX_ROM_SIZE) {
         	        int count = 0;
                     fis = new FileInputStream(rom);
         	        while(fis.available() > 0){//Must be read byte by byte
@@ -76,33 +81,66 @@ public class ApplicationLoader{
 		return romInfo;
 	}
 
+	/**
+	 * Hashes the contents of a ROM using 64 bit FNV-1a
+	 * Used to identify a ROM independently of its file name
+	 * 
+	 * @param rom The ROM as returned by getROMFromFile
+	 * @return The hash of the ROM
+	 */
+	public static long hashROM(int[] rom) {
+	    long hash = 0xCBF29CE484222325L;
+	    for (int i = 0; i < rom.length; i++) {
+	        hash ^= rom[i] & 0xFF;
+	        hash *= 0x100000001B3L;
+	    }
+	    return hash;
+	}
+
 	/**
 	 * Writes an object State to a file fileName
 	 * Appends the extension ".sav" to the fileName
 	 * Saves the .sav file to the local directory
+	 * The state is written to a temporary file, synced and then renamed over
+	 * the .sav file, so a crash leaves either the old or the new save intact
 	 * 
 	 * @param currentState
 	 * @param fileName
+	 * @return True if the save was written
 	 */
-	public static void writeState(State currentState, String fileName){
+	public static boolean writeState(State currentState, String fileName){
+	    File target = new File(fileName + ".sav");
+	    File temp = new File(fileName + ".sav.tmp");
 	    try{
-	        //Append .sav to fileName
-	        OutputStream file = new FileOutputStream(fileName + ".sav");
+	        //Write to a temporary file next to the target
+	        FileOutputStream file = new FileOutputStream(temp);
 	        OutputStream buffer = new BufferedOutputStream( file );
 	        ObjectOutput output = new ObjectOutputStream( buffer );
 	        try{
 	          //Write out state object
 	          output.writeObject(currentState);
+	          output.flush();
+	          file.getFD().sync();//On disk before it replaces the old save
 	        }
 	        finally{
 	            //Make sure stream is closed
 	          output.close();
 	        }
+	        try{
+	            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+	                    StandardCopyOption.REPLACE_EXISTING);
+	        }
+	        catch(AtomicMoveNotSupportedException e){
+	            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	        }
 	      }  
 	      catch(IOException ex){
 	          //File was not outputted properly
+	          temp.delete();
 	          System.out.println("Cannot output file");
+	          return false;
 	      }
+	      return true;
 	}
 	
 	/**
@@ -130,6 +168,9 @@ public class ApplicationLoader{
 	      catch(ClassNotFoundException ex){
 	        System.out.println("Cannot perform input. Class not found.");
 	      }
+	      catch(InvalidClassException ex){
+	          System.out.println("Cannot perform input. Save is from another version.");
+	      }
 	      catch(IOException ex){
 	          System.out.println("Cannot perform input.");
 	      }
@@ -140,6 +181,7 @@ public class ApplicationLoader{
 	/**
 	 * Debugging method
 	 * Will print out the state and append it to a file
+	 * Writes the whole state every call, use TraceLogger to follow execution
 	 * 
 	 * @param currentState The state to append to fle
 	 * @param logName Name of the log file
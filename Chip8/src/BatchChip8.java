@@ -0,0 +1,535 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs many Chip8 machines with the same ROM in lockstep
+ * Machines are stored as structure of arrays: each register is a primitive
+ * array indexed by machine, memory is one contiguous array with MEMORY_SIZE
+ * bytes per machine and the screen is one long per row per machine.
+ * stepAll splits the machines into chunks that run on a fork join pool,
+ * each chunk runs its machines one after the other so a machine's memory
+ * stays in cache. Nothing is allocated while stepping.
+ *
+ * Instructions run as in InstructionTable's DEFAULT profile, in the same
+ * order, and machine m draws the same random numbers as a Chip8 seeded with
+ * seed + m. Timers are decremented once per cycle, as in Chip8. Where they differ:
+ * - 8XY4, 8XY5, 8XY7 and 8XYE wrap VX at 8 bits since memory is stored as
+ *   bytes, Chip8 keeps the result unmasked
+ * - Addresses wrap at MEMORY_SIZE and key numbers at 16, Chip8 throws
+ * - The stack wraps after 16 calls or a return with nothing on it, Chip8 throws
+ * - Invalid opcodes are not printed, the program counter stays on them as in Chip8
+ * - SUPER-CHIP and XO-CHIP instructions are run as invalid opcodes, except
+ *   DXY0 which draws a 16x16 sprite, so skips are always 2 bytes
+ *
+ * Usage: java BatchChip8 <rom file> <machines> <cycles>
+ * Prints the throughput in machine-steps per second
+ * Usage: java BatchChip8 -parity <rom file> <cycles>
+ * Steps one machine alongside a Chip8 and prints the first cycle their registers,
+ * I, program counter, stack pointer or memory differ
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class BatchChip8 {
+    private static final int REGS = 16;
+    private static final int STACK = 16;
+
+    private final int count;
+    private final byte[] memory;//count * MEMORY_SIZE
+    private final int[] V;//count * REGS
+    private final int[] stack;//count * STACK
+    private final int[] pc, indexReg, sp, delayTimer, soundTimer;
+    private final int[] keys;//Bit i is set when key i is pressed
+    private final long[] random;//SplitMix64 state per machine
+    private final long[] screen;//count * Y_DIM, bit 63 is x = 0
+    private final boolean[] drawFlag;
+
+    private final ForkJoinPool pool;
+    private final Chunk[] chunks;
+    private final StepAll root;
+    private int stepCycles;
+    private long steps;
+
+    /**
+     * Creates count machines that share a fork join pool
+     *
+     * @param count Number of machines
+     * @param pool Pool to step machines on
+     */
+    public BatchChip8(int count, ForkJoinPool pool){
+        this.count = count;
+        this.pool = pool;
+        memory = new byte[count * CPU.MEMORY_SIZE];
+        V = new int[count * REGS];
+        stack = new int[count * STACK];
+        pc = new int[count];
+        indexReg = new int[count];
+        sp = new int[count];
+        delayTimer = new int[count];
+        soundTimer = new int[count];
+        keys = new int[count];
+        random = new long[count];
+        screen = new long[count * CPU.Y_DIM];
+        drawFlag = new boolean[count];
+
+        //Several chunks per worker so uneven machines still balance
+        int chunkCount = Math.min(count, pool.getParallelism() * 4);
+        chunks = new Chunk[chunkCount];
+        for(int i = 0; i < chunkCount; i++)
+            chunks[i] = new Chunk(i * count / chunkCount, (i + 1) * count / chunkCount);
+        root = new StepAll();
+    }
+
+    /**
+     * Loads a ROM into every machine and resets them, machine m is seeded with seed + m
+     *
+     * @param rom ROM as returned by ApplicationLoader#getROMFromFile
+     * @param seed Seed of the random number generators
+     */
+    public void loadROM(int[] rom, long seed){
+        for(int m = 0; m < count; m++){
+            int base = m * CPU.MEMORY_SIZE;
+            for(int i = 0; i < CPU.MEMORY_SIZE; i++)
+                memory[base + i] = 0;
+            for(int i = 0; i < CPU.CHIP8_FONTSET.length; i++)
+                memory[base + i] = (byte)CPU.CHIP8_FONTSET[i];
+            for(int i = 0; i < CPU.BIG_FONTSET.length; i++)
+                memory[base + CPU.BIG_FONT_OFFSET + i] = (byte)CPU.BIG_FONTSET[i];
+            for(int i = 0; i < rom.length && i < CPU.ROM_SIZE; i++)
+                memory[base + CPU.ROM_OFFSET + i] = (byte)rom[i];
+            for(int i = 0; i < REGS; i++){
+                V[m * REGS + i] = 0;
+                stack[m * STACK + i] = 0;
+            }
+            for(int y = 0; y < CPU.Y_DIM; y++)
+                screen[m * CPU.Y_DIM + y] = 0;
+            pc[m] = 0x200;
+            indexReg[m] = 0;
+            sp[m] = 0;
+            delayTimer[m] = 0;
+            soundTimer[m] = 0;
+            keys[m] = 0;
+            random[m] = seed + m;
+            drawFlag[m] = true;
+        }
+    }
+
+    /**
+     * Runs cycles cycles on every machine
+     *
+     * @param cycles Number of cycles per machine
+     */
+    public void stepAll(int cycles){
+        stepCycles = cycles;
+        root.reinitialize();
+        pool.invoke(root);
+        steps += (long)cycles * count;
+    }
+
+    /**
+     * @param machine Index of the machine
+     * @param loc The index in the key array
+     * @param val 1 or 0 if the key is pressed
+     */
+    public void setKey(int machine, int loc, int val){
+        if(val != 0)
+            keys[machine] |= 1 << loc;
+        else
+            keys[machine] &= ~(1 << loc);
+    }
+
+    /**
+     * @param machine Index of the machine
+     * @param y Row of the screen
+     * @return The row as 64 bits, the leftmost pixel is the high bit
+     */
+    public long getScreenRow(int machine, int y){
+        return screen[machine * CPU.Y_DIM + y];
+    }
+
+    /**
+     * @param machine Index of the machine
+     * @param pos Position in V
+     * @return Value of V at pos
+     */
+    public int getV(int machine, int pos){
+        return V[machine * REGS + pos];
+    }
+
+    /**
+     * @param machine Index of the machine
+     * @return Program counter of the machine
+     */
+    public int getProgramCounter(int machine){
+        return pc[machine];
+    }
+
+    /**
+     * @param machine Index of the machine
+     * @return Index register of the machine
+     */
+    public int getIndexRegister(int machine){
+        return indexReg[machine];
+    }
+
+    /**
+     * @param machine Index of the machine
+     * @return Stack pointer of the machine
+     */
+    public int getStackPointer(int machine){
+        return sp[machine];
+    }
+
+    /**
+     * @param machine Index of the machine
+     * @param address Address below MEMORY_SIZE
+     * @return Byte of memory at address
+     */
+    public int readMemory(int machine, int address){
+        return memory[machine * CPU.MEMORY_SIZE + address] & 0xFF;
+    }
+
+    /**
+     * @param machine Index of the machine
+     * @return True if the machine drew since the flag was last cleared, clears the flag
+     */
+    public boolean takeDrawFlag(int machine){
+        boolean flag = drawFlag[machine];
+        drawFlag[machine] = false;
+        return flag;
+    }
+
+    /**
+     * @return Number of machines
+     */
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * @return Total machine-steps run by stepAll
+     */
+    public long getSteps(){
+        return steps;
+    }
+
+    /**
+     * Runs one machine for cycles cycles
+     */
+    private void run(int m, int cycles){
+        final int mem = m * CPU.MEMORY_SIZE;
+        final int v = m * REGS;
+        final int scr = m * CPU.Y_DIM;
+        int p = pc[m];
+        int I = indexReg[m];
+
+        for(int c = 0; c < cycles; c++){
+            int opcode = (memory[mem + (p & 0xFFF)] & 0xFF) << 8 | (memory[mem + ((p + 1) & 0xFFF)] & 0xFF);
+            int x = (opcode >> 8) & 0xF;
+            int y = (opcode >> 4) & 0xF;
+            int nn = opcode & 0xFF;
+            int nnn = opcode & 0xFFF;
+            p += 2;
+
+            switch(opcode >> 12){
+                case 0x0:
+                    if((opcode & 0xFFE0) == 0x00C0 || opcode >= 0x00FB && opcode <= 0x00FF)
+                        p -= 2;//Scrolls and modes, not run
+                    else if((opcode & 0xF) == 0x0){
+                        for(int row = 0; row < CPU.Y_DIM; row++)
+                            screen[scr + row] = 0;
+                        drawFlag[m] = true;
+                    }
+                    else if((opcode & 0xF) == 0xE)
+                        p = stack[m * STACK + (--sp[m] & 0xF)] + 2;
+                    else
+                        p -= 2;
+                break;
+                case 0x1:
+                    p = nnn;
+                break;
+                case 0x2:
+                    stack[m * STACK + (sp[m]++ & 0xF)] = p - 2;
+                    p = nnn;
+                break;
+                case 0x3:
+                    if(V[v + x] == nn)
+                        p += 2;
+                break;
+                case 0x4:
+                    if(V[v + x] != nn)
+                        p += 2;
+                break;
+                case 0x5:
+                    if((opcode & 0xF) == 0x2 || (opcode & 0xF) == 0x3)
+                        p -= 2;//Save and load ranges, not run
+                    else if(V[v + x] == V[v + y])
+                        p += 2;
+                break;
+                case 0x6:
+                    V[v + x] = nn;
+                break;
+                case 0x7:
+                    V[v + x] = (V[v + x] + nn) & 0xFF;
+                break;
+                case 0x8:
+                    if(!alu(v, x, y, opcode & 0xF))
+                        p -= 2;
+                break;
+                case 0x9:
+                    if(V[v + x] != V[v + y])
+                        p += 2;
+                break;
+                case 0xA:
+                    I = nnn;
+                break;
+                case 0xB:
+                    p = nnn + V[v];
+                break;
+                case 0xC:{
+                    long z = (random[m] += 0x9E3779B97F4A7C15L);
+                    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+                    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+                    V[v + x] = (int)(z ^ (z >>> 31)) & nn;
+                }
+                break;
+                case 0xD:{
+                    int px = V[v + x];
+                    int py = V[v + y];
+                    int n = opcode & 0xF;
+                    int collision = 0;
+                    for(int line = 0; line < (n == 0 ? 16 : n) && py + line < CPU.Y_DIM; line++){
+                        //Sprites are clipped at the right edge like Chip8, DXY0 rows are 16 bits
+                        long bits;
+                        int shift;
+                        if(n == 0){
+                            bits = (memory[mem + ((I + line * 2) & 0xFFF)] & 0xFFL) << 8 | memory[mem + ((I + line * 2 + 1) & 0xFFF)] & 0xFFL;
+                            shift = 48;
+                        }
+                        else{
+                            bits = memory[mem + ((I + line) & 0xFFF)] & 0xFFL;
+                            shift = 56;
+                        }
+                        long row = px <= shift ? bits << (shift - px) : px < CPU.X_DIM ? bits >>> (px - shift) : 0;
+                        if((screen[scr + py + line] & row) != 0)
+                            collision = 1;
+                        screen[scr + py + line] ^= row;
+                    }
+                    V[v + 0xF] = collision;
+                    drawFlag[m] = true;
+                }
+                break;
+                case 0xE:
+                    if(nn == 0x9E){
+                        if((keys[m] & (1 << (V[v + x] & 0xF))) != 0)
+                            p += 2;
+                    }
+                    else if(nn == 0xA1){
+                        if((keys[m] & (1 << (V[v + x] & 0xF))) == 0)
+                            p += 2;
+                    }
+                    else
+                        p -= 2;
+                break;
+                case 0xF:
+                    if(opcode == 0xF000 || opcode == 0xF002){
+                        p -= 2;//Long index and audio pattern, not run
+                        break;
+                    }
+                    switch(nn){
+                        case 0x07: V[v + x] = delayTimer[m]; break;
+                        case 0x0A:
+                            if(keys[m] == 0){
+                                p -= 2;//Wait for a key, timers do not run
+                                continue;
+                            }
+                            V[v + x] = 31 - Integer.numberOfLeadingZeros(keys[m]);
+                        break;
+                        case 0x15: delayTimer[m] = V[v + x]; break;
+                        case 0x18: soundTimer[m] = V[v + x]; break;
+                        case 0x1E:
+                            V[v + 0xF] = I + V[v + x] > 0xFFF ? 1 : 0;
+                            I += V[v + x];
+                        break;
+                        case 0x29: I = V[v + x] * 5; break;
+                        case 0x33:
+                            memory[mem + (I & 0xFFF)] = (byte)(V[v + x] / 100);
+                            memory[mem + ((I + 1) & 0xFFF)] = (byte)(V[v + x] / 10 % 10);
+                            memory[mem + ((I + 2) & 0xFFF)] = (byte)(V[v + x] % 10);
+                        break;
+                        case 0x55:
+                            for(int i = 0; i <= x; i++)
+                                memory[mem + ((I + i) & 0xFFF)] = (byte)V[v + i];
+                            I += x + 1;
+                        break;
+                        case 0x65:
+                            for(int i = 0; i <= x; i++)
+                                V[v + i] = memory[mem + ((I + i) & 0xFFF)] & 0xFF;
+                            I += x + 1;
+                        break;
+                        default:
+                            p -= 2;
+                    }
+                break;
+            }
+
+            if(delayTimer[m] > 0)
+                delayTimer[m]--;
+            if(soundTimer[m] > 0)
+                soundTimer[m]--;
+        }
+
+        pc[m] = p & 0xFFF;
+        indexReg[m] = I;
+    }
+
+    /**
+     * Runs the 8XYN arithmetic instructions, VF is written before VX as in InstructionTable
+     * @return False if N is not an arithmetic instruction
+     */
+    private boolean alu(int v, int x, int y, int op){
+        switch(op){
+            case 0x0: V[v + x] = V[v + y]; break;
+            case 0x1: V[v + x] = V[v + x] | V[v + y]; break;
+            case 0x2: V[v + x] = V[v + x] & V[v + y]; break;
+            case 0x3: V[v + x] = V[v + x] ^ V[v + y]; break;
+            case 0x4:
+                V[v + 0xF] = V[v + y] > 0xFF - V[v + x] ? 1 : 0;
+                V[v + x] = (V[v + x] + V[v + y]) & 0xFF;
+            break;
+            case 0x5:
+                V[v + 0xF] = V[v + y] > V[v + x] ? 0 : 1;
+                V[v + x] = (V[v + x] - V[v + y]) & 0xFF;
+            break;
+            case 0x6:
+                V[v + 0xF] = V[v + x] & 0x1;
+                V[v + x] = V[v + x] >> 1;
+            break;
+            case 0x7:
+                V[v + 0xF] = V[v + x] > V[v + y] ? 0 : 1;
+                V[v + x] = (V[v + y] - V[v + x]) & 0xFF;
+            break;
+            case 0xE:
+                V[v + 0xF] = V[v + x] >> 7;
+                V[v + x] = (V[v + x] << 1) & 0xFF;
+            break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs a range of machines, reused between calls to stepAll
+     */
+    private class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+
+        Chunk(int from, int to){
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute(){
+            for(int m = from; m < to; m++)
+                run(m, stepCycles);
+        }
+    }
+
+    /**
+     * Forks every chunk and waits for them
+     */
+    private class StepAll extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected void compute(){
+            for(int i = 0; i < chunks.length; i++)
+                chunks[i].reinitialize();
+            invokeAll(chunks);
+        }
+    }
+
+    /**
+     * Steps one machine alongside a Chip8 running the DEFAULT profile, one instruction at a time
+     * Values are compared as bytes, see the class notes for where the two differ
+     *
+     * @param rom ROM as returned by ApplicationLoader#getROMFromFile
+     * @param cycles Number of cycles to run
+     * @param seed Seed of both random number generators
+     * @return The first difference, or null if there was none
+     */
+    public static String parity(int[] rom, long cycles, long seed){
+        BatchChip8 batch = new BatchChip8(1, new ForkJoinPool(1));
+        batch.loadROM(rom, seed);
+        Chip8 chip = new Chip8();
+        chip.initState();
+        chip.setQuirkProfile(QuirkProfile.DEFAULT);
+        chip.loadROM(rom);
+        chip.setSeed(seed);
+        for(long c = 0; c < cycles; c++){
+            int address = chip.getProgramCounter();
+            try{
+                chip.emulateCycle(chip.getCycleCount() + 1);
+            }
+            catch(RuntimeException e){
+                return "Cycle " + c + ": Chip8 threw " + e + " at " + Integer.toHexString(address);
+            }
+            batch.run(0, 1);
+            String difference = batch.difference(chip);
+            if(difference != null)
+                return "Cycle " + c + " at " + Integer.toHexString(address) + ": " + difference;
+        }
+        return null;
+    }
+
+    /**
+     * Compares machine 0 with chip
+     * @return The first value that differs, or null if none does
+     */
+    private String difference(CPU chip){
+        for(int i = 0; i < REGS; i++)
+            if((chip.getRegister(i) & 0xFF) != getV(0, i))
+                return "V" + Integer.toHexString(i) + " is " + getV(0, i) + ", Chip8 has " + chip.getRegister(i);
+        if(chip.getIndexRegister() != getIndexRegister(0))
+            return "I is " + Integer.toHexString(getIndexRegister(0)) + ", Chip8 has " + Integer.toHexString(chip.getIndexRegister());
+        if((chip.getProgramCounter() & 0xFFF) != getProgramCounter(0))
+            return "PC is " + Integer.toHexString(getProgramCounter(0)) + ", Chip8 has " + Integer.toHexString(chip.getProgramCounter());
+        if(chip.getStackPointer() != getStackPointer(0))
+            return "SP is " + getStackPointer(0) + ", Chip8 has " + chip.getStackPointer();
+        for(int address = 0; address < CPU.MEMORY_SIZE; address++)
+            if((chip.readMemory(address) & 0xFF) != readMemory(0, address))
+                return "Memory at " + Integer.toHexString(address) + " is " + readMemory(0, address) + ", Chip8 has " + chip.readMemory(address);
+        return null;
+    }
+
+    public static void main(String[] args){
+        if(args.length == 3 && args[0].equals("-parity")){
+            long cycles = Long.parseLong(args[2]);
+            String difference = parity(ApplicationLoader.getROMFromFile(args[1]), cycles, System.nanoTime());
+            System.out.println(difference == null ? "No differences in " + cycles + " cycles" : difference);
+            return;
+        }
+        if(args.length < 3){
+            System.out.println("Usage: java BatchChip8 <rom file> <machines> <cycles>");
+            System.out.println("       java BatchChip8 -parity <rom file> <cycles>");
+            return;
+        }
+        int machines = Integer.parseInt(args[1]);
+        int cycles = Integer.parseInt(args[2]);
+        BatchChip8 batch = new BatchChip8(machines, new ForkJoinPool());
+        batch.loadROM(ApplicationLoader.getROMFromFile(args[0]), System.nanoTime());
+
+        //Step in slices of a frame's worth of cycles, as an agent would
+        int slice = 1000;
+        batch.stepAll(slice);//Warm up
+        long start = System.nanoTime();
+        long before = batch.getSteps();
+        for(int done = 0; done < cycles; done += slice)
+            batch.stepAll(Math.min(slice, cycles - done));
+        long elapsed = System.nanoTime() - start;
+        System.out.println(machines + " machines ran " + (batch.getSteps() - before) + " steps in "
+                + elapsed / 1000000 + " ms (" + (long)((batch.getSteps() - before) * 1e9 / Math.max(elapsed, 1))
+                + " machine-steps/s)");
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Receives the CPU stopping at a breakpoint, watchpoint or step
+ * Called on the thread running the CPU, so it should hand the stop over to
+ * the UI rather than doing the work itself.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public interface BreakListener {
+    /**
+     * @param debugger The debugger that stopped the CPU
+     * @param reason One of the Debugger stop reasons
+     * @param address The breakpoint or step address, or the watched address accessed
+     */
+    public void breakHit(Debugger debugger, int reason, int address);
+}
@@ -13,6 +13,16 @@ public interface CPU{
     public final int MEMORY_SIZE = 4096;
     public final int ROM_OFFSET = 512;
     public final int ROM_SIZE = MEMORY_SIZE - ROM_OFFSET;
+    public final int FRAME_BYTES = X_DIM * Y_DIM / 8;//Size of a packed framebuffer
+    
+    //SUPER-CHIP and XO-CHIP extensions
+    public final int HIRES_X_DIM = 128;
+    public final int HIRES_Y_DIM = 64;
+    public final int MAX_FRAME_BYTES = HIRES_X_DIM * HIRES_Y_DIM / 8;//Size of a packed hi-res framebuffer
+    public final int PLANES = 2;//XO-CHIP bitplanes
+    public final int XO_MEMORY_SIZE = 0x10000;
+    public final int MAX_ROM_SIZE = XO_MEMORY_SIZE - ROM_OFFSET;
+    public final int BIG_FONT_OFFSET = 0x50;//After the small font
     
     //Chip8 has a fontset that must be predefined for graphic output
     public final int[] CHIP8_FONTSET =
@@ -35,6 +45,27 @@ public interface CPU{
             0xF0, 0x80, 0xF0, 0x80, 0x80  //F
         };
     
+    //SUPER-CHIP 8x10 font, with the XO-CHIP letters A-F
+    public final int[] BIG_FONTSET =
+        {
+            0x3C, 0x7E, 0xE7, 0xC3, 0xC3, 0xC3, 0xC3, 0xE7, 0x7E, 0x3C, //0
+            0x18, 0x38, 0x58, 0x18, 0x18, 0x18, 0x18, 0x18, 0x18, 0x3C, //1
+            0x3E, 0x7F, 0xC3, 0x06, 0x0C, 0x18, 0x30, 0x60, 0xFF, 0xFF, //2
+            0x3C, 0x7E, 0xC3, 0x03, 0x0E, 0x0E, 0x03, 0xC3, 0x7E, 0x3C, //3
+            0x06, 0x0E, 0x1E, 0x36, 0x66, 0xC6, 0xFF, 0xFF, 0x06, 0x06, //4
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFE, 0x03, 0xC3, 0x7E, 0x3C, //5
+            0x3E, 0x7C, 0xC0, 0xC0, 0xFC, 0xFE, 0xC3, 0xC3, 0x7E, 0x3C, //6
+            0xFF, 0xFF, 0x03, 0x06, 0x0C, 0x18, 0x30, 0x60, 0x60, 0x60, //7
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7E, 0x7E, 0xC3, 0xC3, 0x7E, 0x3C, //8
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7F, 0x3F, 0x03, 0x03, 0x3E, 0x7C, //9
+            0x7E, 0xFF, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xC3, //A
+            0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, //B
+            0x3C, 0xFF, 0xC3, 0xC0, 0xC0, 0xC0, 0xC0, 0xC3, 0xFF, 0x3C, //C
+            0xFC, 0xFE, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFE, 0xFC, //D
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, //E
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xC0, 0xC0  //F
+        };
+    
     /**
      * Initialize the state of the CPU
      */
@@ -53,12 +84,65 @@ public interface CPU{
     public void emulateCycle();
     
     /**
-     * Returns a 2d array graphics window
+     * Runs an emulation cycle once, without retiring instructions past a cycle count
+     * A fused instruction or compiled block that could retire past limit is run
+     * one instruction at a time, so playback can stop on an exact cycle
+     * 
+     * @param limit Cycle count the cycle may not go past
+     */
+    public void emulateCycle(long limit);
+    
+    /**
+     * Returns a 2d array graphics window, a pixel is set if it is on in any plane
      * 
-     * @return 2d boolean array window
+     * @return 2d boolean array window, getWidth() by getHeight()
      */
     public boolean[][] getWindow();
     
+    /**
+     * @return Width of the display, X_DIM or HIRES_X_DIM in hi-res mode
+     */
+    public int getWidth();
+    
+    /**
+     * @return Height of the display, Y_DIM or HIRES_Y_DIM in hi-res mode
+     */
+    public int getHeight();
+    
+    /**
+     * Packs the graphics window into dest, one bit per pixel
+     * Rows are stored top to bottom, the leftmost pixel of a byte is its high bit
+     * A pixel is set if it is on in any plane
+     * 
+     * @param dest Array of at least getWidth() * getHeight() / 8 bytes, MAX_FRAME_BYTES fits any mode
+     */
+    public void copyFramebuffer(byte[] dest);
+    
+    /**
+     * Packs one XO-CHIP bitplane into dest, as copyFramebuffer
+     * 
+     * @param dest Array of at least getWidth() * getHeight() / 8 bytes
+     * @param plane The plane, 0 or 1
+     */
+    public void copyPlane(byte[] dest, int plane);
+    
+    /**
+     * Returns a hash of the graphics window, maintained as pixels change
+     * Identical windows have identical hashes, so frames can be compared cheaply
+     * 
+     * @return Hash of the window
+     */
+    public long getFrameHash();
+    
+    /**
+     * Returns an independent CPU that continues from the current state
+     * Memory is shared copy-on-write, so forking is cheap and only pages
+     * that are written afterwards are copied
+     * 
+     * @return The new CPU
+     */
+    public CPU fork();
+    
     /**
      * Sets the key input value at index loc
      * 
@@ -72,8 +156,9 @@ public interface CPU{
      * Saves the state of the cpu with the given fileName
      * 
      * @param fileName Name of the file to be written
+     * @return True if the save was written
      */
-    public void saveState(String fileName);
+    public boolean saveState(String fileName);
     
     /**
      * Loads the state from a file
@@ -95,4 +180,164 @@ public interface CPU{
      * @param fileName The location of the ROM file
      */
     public void loadROM(String fileName);
-}
\ No newline at end of file
+    
+    /**
+     * Resets the CPU and loads a ROM that is already in memory
+     * 
+     * @param rom The ROM as returned by ApplicationLoader#getROMFromFile
+     */
+    public void loadROM(int[] rom);
+    
+    /**
+     * Returns the value of a V register
+     * 
+     * @param pos Index of the register, 0x0 to 0xF
+     * @return Value of the register
+     */
+    public int getRegister(int pos);
+    
+    /**
+     * @return Address of the next instruction
+     */
+    public int getProgramCounter();
+    
+    /**
+     * @return Value of the index register I
+     */
+    public int getIndexRegister();
+    
+    /**
+     * @return Number of addresses on the stack
+     */
+    public int getStackPointer();
+    
+    /**
+     * @param level Level of the stack, below getStackPointer()
+     * @return Return address saved at that level
+     */
+    public int getStack(int level);
+    
+    /**
+     * @return Value of the delay timer
+     */
+    public int getDelayTimer();
+    
+    /**
+     * @return Value of the sound timer
+     */
+    public int getSoundTimer();
+    
+    /**
+     * @param loc Index of the key, 0x0 to 0xF
+     * @return 1 if the key is pressed, else 0
+     */
+    public int getKey(int loc);
+    
+    /**
+     * Returns the size of memory, MEMORY_SIZE unless the ROM needs the XO-CHIP
+     * address space, then XO_MEMORY_SIZE
+     * 
+     * @return Number of addresses
+     */
+    public int getMemorySize();
+    
+    /**
+     * Returns the value of a memory address
+     * 
+     * @param address Address to read
+     * @return Value at the address
+     */
+    public int readMemory(int address);
+    
+    /**
+     * Returns the number of cycles emulated since the ROM was loaded
+     * 
+     * @return Cycle count
+     */
+    public long getCycleCount();
+    
+    /**
+     * Returns the hash of the loaded ROM
+     * 
+     * @return ROM hash, see ApplicationLoader#hashROM
+     */
+    public long getROMHash();
+    
+    /**
+     * Seeds the random number generator used by CXNN
+     * 
+     * @param seed The new seed
+     */
+    public void setSeed(long seed);
+    
+    /**
+     * Routes key input through a recorder, or directly to the keypad if null
+     * 
+     * @param recorder The recorder to use, or null to stop recording
+     */
+    public void setInputRecorder(MovieRecorder recorder);
+    
+    /**
+     * Records every instruction run into a trace
+     * While tracing, instructions run one at a time, without fusion or compiled code
+     * 
+     * @param tracer The trace to record into, or null to stop tracing
+     */
+    public void setTracer(TraceLogger tracer);
+    
+    /**
+     * Checks every instruction with a debugger, called by the Debugger when armed
+     * While set, instructions run one at a time, without fusion or compiled code
+     * 
+     * @param debugger The debugger, or null to run at full speed
+     */
+    public void setDebugger(Debugger debugger);
+    
+    /**
+     * Counts every memory access in a heatmap
+     * While set, instructions run one at a time, without fusion or compiled code
+     * 
+     * @param heatmap The heatmap to count into, or null to stop counting
+     */
+    public void setMemoryHeatmap(MemoryHeatmap heatmap);
+    
+    /**
+     * Stamps key changes and the first time the program reads them
+     * 
+     * @param latency The tracer, or null to stop tracing
+     */
+    public void setLatencyTracer(LatencyTracer latency);
+    
+    /**
+     * Compiles ROMs ahead of time and caches the compiled classes in directory
+     * Code that is not compiled, or modified after loading, is still interpreted
+     * 
+     * @param directory The cache directory, or null to only interpret
+     */
+    public void setCompileCache(String directory);
+    
+    /**
+     * Runs the ROM with the quirks of profile, from the next instruction on
+     * The profile is kept for ROMs loaded later, even if the ROM database has another
+     * 
+     * @param profile The quirks, QuirkProfile.DEFAULT unless set
+     */
+    public void setQuirkProfile(QuirkProfile profile);
+    
+    /**
+     * @return The quirks the ROM runs with: the profile set, else the ROM database's, else QuirkProfile.DEFAULT
+     */
+    public QuirkProfile getQuirkProfile();
+    
+    /**
+     * @return What the ROM database knows of the loaded ROM, or null if it is unknown
+     */
+    public ROMDatabase.Entry getROMInfo();
+    
+    /**
+     * Turns the beep on or off, used when running without a window
+     * 
+     * @param enabled True if the beep should be played
+     */
+    public void setSoundEnabled(boolean enabled);
+}
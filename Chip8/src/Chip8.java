@@ -1,7 +1,5 @@
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Random;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
@@ -21,15 +19,58 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 public class Chip8 implements CPU{
     //State variable of Chip8
     private State currentState;
-    //List of opcodes used, for debugging purposes
-    private ArrayList<String> opcodes;
+    //Last OPCODE_HISTORY opcodes run, for debugging purposes
+    private static final int OPCODE_HISTORY = 256;//Power of two
+    private final int[] opcodes = new int[OPCODE_HISTORY];
+    private long opcodeCount;
+    //Loaded on a background thread at the first beep and replayed after that
+    private volatile Clip beepClip;
+    private boolean beepLoading;
+    //Records key input when a movie is being recorded, else null
+    private MovieRecorder recorder;
+    //Records every instruction when tracing, else null
+    private TraceLogger tracer;
+    //Checked before every instruction while armed, else null
+    private volatile Debugger debugger;
+    //Counts memory accesses when set, else null
+    private MemoryHeatmap heatmap;
+    //Stamps key changes and their first read when set, else null
+    private LatencyTracer latency;
+    private boolean soundEnabled = true;
+    //Maps every opcode to the Instruction that runs it
+    private Instruction[] table = InstructionTable.TABLE;
+    //Quirks chosen with setQuirkProfile, which override the ROM database once chosen
+    private QuirkProfile profile = QuirkProfile.DEFAULT;
+    private boolean profileChosen;
+    //Settings the ROM database has for the loaded ROM, or null
+    private ROMDatabase.Entry romInfo;
+    //Directory of ROMs compiled ahead of time, or null to only interpret
+    private File compileCache;
+    //Compiled blocks of the loaded ROM, or null
+    private CompiledCode compiled;
     
     /**
      * Creates a new State object and initializes opcodes
      */
     public Chip8(){
-        currentState = new State();
-        opcodes = new ArrayList<String>();
+        this(new State());
+    }
+    
+    /**
+     * Creates a Chip8 that runs an alternate instruction set
+     * @param table Instruction for each of the InstructionTable.SIZE opcodes
+     */
+    public Chip8(Instruction[] table){
+        this(new State());
+        this.table = table;
+    }
+    
+    /**
+     * Creates a Chip8 running from the given state
+     * @param state The state to run
+     */
+    private Chip8(State state){
+        currentState = state;
     }
     
     /** 
@@ -47,9 +88,24 @@ public class Chip8 implements CPU{
      * @see CPU#loadROM(java.lang.String)
      */
     public void loadROM(String fileName){
+        loadROM(ApplicationLoader.getROMFromFile(fileName));
+    }
+    
+    /**
+     * Resets the state and copies rom into memory
+     * ROMs larger than ROM_SIZE get the XO-CHIP address space
+     * A ROM known to the ROM database runs with its quirks and idle loops
+     * @see CPU#loadROM(int[])
+     * @see ROMDatabase
+     */
+    public void loadROM(int[] rom){
         currentState.initialState();
-        int[] rom = ApplicationLoader.getROMFromFile(fileName);
-        if(rom.length <= ROM_SIZE)//If valid, read rom into memory
+        currentState.setRomHash(ApplicationLoader.hashROM(rom));
+        romInfo = ROMDatabase.getDefault().lookup(currentState.getRomHash());
+        useTable(romTable());
+        if(rom.length > ROM_SIZE)
+            currentState.setMemorySize(XO_MEMORY_SIZE);
+        if(rom.length <= MAX_ROM_SIZE)//If valid, read rom into memory
             for(int i = 0; i < rom.length; i++){
                 //System.out.println(Integer.toHexString(rom[i]));
                 currentState.setMemAddr(i + ROM_OFFSET, rom[i]);
@@ -57,6 +113,11 @@ public class Chip8 implements CPU{
             }
         else
             System.out.println("error");
+        
+        //Compiled code only mirrors the standard instruction set
+        compiled = null;
+        if(compileCache != null && table == InstructionTable.TABLE)
+            compiled = AOTCompiler.load(rom, currentState.getRomHash(), compileCache);
     }
     
     /** 
@@ -65,9 +126,20 @@ public class Chip8 implements CPU{
      * @see CPU#loadState(java.lang.String)
      */
     public void loadState(String fileName){
-        this.currentState = ApplicationLoader.readState(fileName);
-        if(currentState == null)
+        State loaded = ApplicationLoader.readState(fileName);
+        if(loaded == null){//The running state is kept
             System.out.println("File not read");
+            return;
+        }
+        long romHash = currentState.getRomHash();
+        currentState = loaded;
+        currentState.recomputeFrameHash();
+        currentState.setHeatmap(heatmap);
+        if(currentState.getRomHash() != romHash){//The save is of another ROM, use its settings
+            romInfo = ROMDatabase.getDefault().lookup(currentState.getRomHash());
+            useTable(romTable());
+            compiled = null;//Blocks check their code before running, so a state of the same ROM can keep them
+        }
     }
     
     /* (non-Javadoc)
@@ -79,316 +151,109 @@ public class Chip8 implements CPU{
     
     /**
      * Emulates one cycle of the Chip8 processor
-     * Follows opcode formatting using bitwise operations
-     * First fetches the opcode, then processes it, then updates the timers
+     * Runs the Instruction decoded at the program counter, then updates the timers
+     * once per instruction retired. Common sequences are fused into a single
+     * Instruction when decoded, in which case one call runs several instructions
+     * Once every instruction has been decoded a cycle allocates nothing, see AllocationCheck
      * @see CPU#emulateCycle()
+     * @see InstructionTable
+     * @see Superinstructions
      */
     public void emulateCycle()
     {
-        // Fetch opcode
-        int opcode = currentState.getOpcode();
+        // Apply key changes queued by the recorder so they land on a known cycle
+        if(recorder != null)
+            recorder.applyPending(currentState);
+        if(tracer != null || debugger != null || heatmap != null){
+            instrumentedCycle();
+            return;
+        }
+        
+        // Fetch the decoded instruction, decoding it on first use
+        int pc = currentState.getProgramCounter();
+        Instruction instruction = currentState.getDecoded(pc);
+        if(instruction == null)
+            instruction = decode(pc);
         //ApplicationLoader.printStatus(currentState);
-        opcodes.add(Integer.toHexString(opcode));
+        opcodes[(int)(opcodeCount++ & (OPCODE_HISTORY - 1))] = currentState.getOpcode() & 0xFFFF;
         
-        // Process opcode
-        switch(opcode & 0xF000)
-        {       
-            case 0x0000:
-                switch(opcode & 0x000F)
-                {
-                    case 0x0000: // 0x00E0: Clears the screen
-                        currentState.clearScreen();
-                        currentState.setDrawFlag(true);
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    case 0x000E: // 0x00EE: Returns from subroutine
-                        // Put the stored return address from the stack back into the program counter 
-                        currentState.setProgramCounter(currentState.popFromStack());           
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    default:
-                        printError(opcode);          
-                }
-            break;
-
-            case 0x1000: // 0x1NNN: Jumps to address NNN
-                currentState.setProgramCounter(opcode & 0x0FFF);
-            break;
-
-            case 0x2000: // 0x2NNN: Calls subroutine at NNN.
-                currentState.addToStack(currentState.getProgramCounter());// Store current address in stack
-                currentState.setProgramCounter(opcode & 0x0FFF);// Set the program counter to the address at NNN
-            break;
-            
-            case 0x3000: // 0x3XNN: Skips the next instruction if VX equals NN
-                if(currentState.getV((opcode & 0x0F00) >> 8) == (opcode & 0x00FF))
-                    currentState.incProgramCounter(4);
-                else
-                    currentState.incProgramCounter(2);
-            break;
-            
-            case 0x4000: // 0x4XNN: Skips the next instruction if VX doesn't equal NN
-                if(currentState.getV((opcode & 0x0F00) >> 8) != (opcode & 0x00FF))
-                    currentState.incProgramCounter(4);
-                else
-                    currentState.incProgramCounter(2);
-            break;
-            
-            case 0x5000: // 0x5XY0: Skips the next instruction if VX equals VY.
-                if(currentState.getV((opcode & 0x0F00) >> 8) == currentState.getV((opcode & 0x00F0) >> 4))
-                    currentState.incProgramCounter(4);
-                else
-                    currentState.incProgramCounter(2);
-            break;
-            
-            case 0x6000: // 0x6XNN: Sets VX to NN.
-                currentState.setV((opcode & 0x0F00) >> 8, (opcode & 0x00FF));
-                currentState.incProgramCounter(2);
-            break;
-            
-            case 0x7000: // 0x7XNN: Adds NN to VX.
-                int case7 = currentState.getV((opcode & 0x0F00) >> 8) + opcode & 0x00FF;
-                currentState.setV((opcode & 0x0F00) >> 8, case7);
-                currentState.incProgramCounter(2);
-            break;
-            
-            case 0x8000:
-                switch(opcode & 0x000F)
-                {
-                    case 0x0000: // 0x8XY0: Sets VX to the value of VY
-                        int case0 = currentState.getV((opcode & 0x00F0) >> 4);
-                        currentState.setV((opcode & 0x0F00) >> 8, case0);
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    case 0x0001: // 0x8XY1: Sets VX to "VX OR VY"
-                        int case1 = currentState.getV((opcode & 0x0F00) >> 8) | currentState.getV((opcode & 0x00F0) >> 4);
-                        currentState.setV((opcode & 0x0F00) >> 8, case1);
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    case 0x0002: // 0x8XY2: Sets VX to "VX AND VY"
-                        int case2 = currentState.getV((opcode & 0x0F00) >> 8) & currentState.getV((opcode & 0x00F0) >> 4);
-                        currentState.setV((opcode & 0x0F00) >> 8, case2);
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    case 0x0003: // 0x8XY3: Sets VX to "VX XOR VY"
-                        int case3 = currentState.getV((opcode & 0x0F00) >> 8) ^ currentState.getV((opcode & 0x00F0) >> 4);
-                        currentState.setV((opcode & 0x0F00) >> 8, case3);
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    case 0x0004: // 0x8XY4: Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't                   
-                        if(currentState.getV((opcode & 0x00F0) >> 4) > (0xFF - currentState.getV((opcode & 0x0F00) >> 8))) 
-                            currentState.setV(0xF, 1); //carry
-                        else 
-                            currentState.setV(0xF, 0);                 
-                        currentState.setV((opcode & 0x0F00) >> 8, currentState.getV((opcode & 0x0F00) >> 8) + currentState.getV((opcode & 0x00F0) >> 4));
-                        currentState.incProgramCounter(2);                   
-                    break;
-
-                    case 0x0005: // 0x8XY5: VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't
-                        if(currentState.getV((opcode & 0x00F0) >> 4) > currentState.getV((opcode & 0x0F00) >> 8)) 
-                            currentState.setV(0xF, 0); // there is a borrow
-                        else 
-                            currentState.setV(0xF, 1);                 
-                        currentState.setV((opcode & 0x0F00) >> 8, currentState.getV((opcode & 0x0F00) >> 8) - currentState.getV((opcode & 0x00F0) >> 4));
-                        currentState.incProgramCounter(2);  
-                    break;
-
-                    case 0x0006: // 0x8XY6: Shifts VX right by one. VF is set to the value of the least significant bit of VX before the shift
-                        currentState.setV(0xF, (currentState.getV((opcode & 0x0F00) >> 8) & 0x1));
-                        currentState.setV((opcode & 0x0F00) >> 8, currentState.getV((opcode & 0x0F00) >> 8) >> 1);
-                        currentState.incProgramCounter(2);  
-                    break;
-
-                    case 0x0007: // 0x8XY7: Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't
-                        if(currentState.getV((opcode & 0x0F00) >> 8) > currentState.getV((opcode & 0x00F0) >> 4))   // VY-VX
-                            currentState.setV(0xF, 0); // there is a borrow
-                        else
-                            currentState.setV(0xF, 1);
-                        currentState.setV((opcode & 0x0F00) >> 8, currentState.getV((opcode & 0x00F0) >> 4) - currentState.getV((opcode & 0x0F00) >> 8));              
-                        currentState.incProgramCounter(2);  
-                    break;
-
-                    case 0x000E: // 0x8XYE: Shifts VX left by one. VF is set to the value of the most significant bit of VX before the shift
-                        currentState.setV(0xF, currentState.getV((opcode & 0x0F00) >> 8) >> 7);
-                        currentState.setV((opcode & 0x0F00) >> 8, currentState.getV((opcode & 0x0F00) >> 8) << 1);
-                        currentState.incProgramCounter(2);  
-                    break;
-
-                    default:
-                        printError(opcode);
-                }
-            break;
-            
-            case 0x9000: // 0x9XY0: Skips the next instruction if VX doesn't equal VY
-                if(currentState.getV((opcode & 0x0F00) >> 8) != currentState.getV((opcode & 0x00F0) >> 4))
-                    currentState.incProgramCounter(4);
-                else
-                    currentState.incProgramCounter(2);
-            break;
-
-            case 0xA000: // ANNN: Sets I to the address NNN
-                currentState.setIndexReg(opcode & 0x0FFF);
-                currentState.incProgramCounter(2);
-            break;
-            
-            case 0xB000: // BNNN: Jumps to the address NNN plus V0
-                currentState.setProgramCounter((opcode & 0x0FFF) + currentState.getV(0));
-            break;
-            
-            case 0xC000: // CXNN: Sets VX to a random number and NN
-                int casec = (((new Random()).nextInt() % 0xFF) & (opcode & 0x00FF));
-                currentState.setV((opcode & 0x0F00) >> 8, casec);
-                currentState.incProgramCounter(2);
-            break;
+        // Process opcode, a waiting instruction does not run the timers
+        int retired = instruction.execute(this, currentState);
+        currentState.addCycles(retired == 0 ? 1 : retired);
+        for(int i = 0; i < retired; i++)
+            updateTimers();
+    }
+    
+    /**
+     * Runs the instruction decoded at the program counter, or only the single
+     * instruction there if the decoded one could retire past limit
+     * @see CPU#emulateCycle(long)
+     */
+    public void emulateCycle(long limit)
+    {
+        int pc = currentState.getProgramCounter();
+        Instruction instruction = currentState.getDecoded(pc);
+        if(instruction == null)
+            instruction = decode(pc);
+        if(instruction.maxRetired() <= limit - currentState.getCycleCount()){
+            emulateCycle();
+            return;
+        }
+        if(recorder != null)
+            recorder.applyPending(currentState);
+        instrumentedCycle();
+    }
+    
+    /**
+     * Runs the single instruction at the program counter for the tracer, debugger,
+     * heatmap and emulateCycle(long)
+     * The decode cache is bypassed so each instruction is traced, checked and fetched on its own
+     */
+    private void instrumentedCycle(){
+        Debugger debugger = this.debugger;
+        int pc = currentState.getProgramCounter();
+        int opcode = currentState.getOpcode() & 0xFFFF;
+        if(debugger != null && debugger.beforeInstruction(pc, opcode, currentState))
+            return;//Stopped, the instruction runs when the debugger resumes
+        opcodes[(int)(opcodeCount++ & (OPCODE_HISTORY - 1))] = opcode;
         
-            case 0xD000: 
-             // DXYN: Draws a sprite at coordinate (VX, VY) that has a width of 8 pixels and a height of N pixels. 
-                // Each row of 8 pixels is read as bit-coded starting from memory location I; 
-                // I value doesn't change after the execution of this instruction. 
-                // VF is set to 1 if any screen pixels are flipped from set to unset when the sprite is drawn, 
-                // and to 0 if that doesn't happen
-                int x = currentState.getV((opcode & 0x0F00) >> 8);
-                int y = currentState.getV((opcode & 0x00F0) >> 4);
-                int height = (opcode & 0x000F);
-                int pixel;
-
-                currentState.setV(0xF, 0);
-                for (int yline = 0; yline < height; yline++)
-                {
-                    pixel = currentState.getMemAddr(currentState.getIndexReg() + yline);
-                    for(int xline = 0; xline < 8; xline++)
-                    {
-                        if((pixel & (0x80 >> xline)) != 0 && (x+xline) < X_DIM && (y+yline) < Y_DIM)
-                        {
-                            if(currentState.getWindowPos(x + xline, y + yline) == true)
-                            {
-                                currentState.setV(0xF, 1);                                    
-                            }
-                            currentState.setWindowPos(x + xline, y + yline, currentState.getWindowPos(x + xline, y + yline) ^ true);
-                        }
-                    }
-                }
-                            
-                currentState.setDrawFlag(true);            
-                currentState.incProgramCounter(2);
-            break;
-                
-            case 0xE000:
-                switch(opcode & 0x00FF)
-                {
-                    case 0x009E: // EX9E: Skips the next instruction if the key stored in VX is pressed
-                        if(currentState.getKey(currentState.getV((opcode & 0x0F00) >> 8)) != 0)
-                            currentState.incProgramCounter(4);
-                        else
-                            currentState.incProgramCounter(2);
-                    break;
-                    
-                    case 0x00A1: // EXA1: Skips the next instruction if the key stored in VX isn't pressed
-                        if(currentState.getKey(currentState.getV((opcode & 0x0F00) >> 8)) == 0)
-                            currentState.incProgramCounter(4);
-                        else
-                            currentState.incProgramCounter(2);
-                    break;
-
-                    default:
-                        printError(opcode);
-                }
-            break;
-            
-            case 0xF000:
-                switch(opcode & 0x00FF)
-                {
-                    case 0x0007: // FX07: Sets VX to the value of the delay timer
-                        currentState.setV((opcode & 0x0F00) >> 8, currentState.getDelayTimer());
-                        currentState.incProgramCounter(2);
-                    break;
-                                    
-                    case 0x000A: // FX0A: A key press is awaited, and then stored in VX     
-                    {
-                        boolean keyPress = false;
-
-                        for(int i = 0; i < 16; ++i)
-                        {
-                            if(currentState.getKey(i) != 0)
-                            {
-                                currentState.setV((opcode & 0x0F00) >> 8, i);
-                                keyPress = true;
-                            }
-                        }
-
-                        // If we didn't received a keypress, skip this cycle and try again.
-                        if(!keyPress)                       
-                            return;
-
-                        currentState.incProgramCounter(2);                    
-                    }
-                    break;
-                    
-                    case 0x0015: // FX15: Sets the delay timer to VX
-                        currentState.setDelayTimer(currentState.getV((opcode & 0x0F00) >> 8));
-                        currentState.incProgramCounter(2); 
-                    break;
-
-                    case 0x0018: // FX18: Sets the sound timer to VX
-                        currentState.setSoundTimer(currentState.getV((opcode & 0x0F00) >> 8));
-                        currentState.incProgramCounter(2); 
-                    break;
-
-                    case 0x001E: // FX1E: Adds VX to I
-                        if(currentState.getIndexReg() + currentState.getV((opcode & 0x0F00) >> 8) > 0xFFF)// VF is set to 1 when range overflow (I+VX>0xFFF), and 0 when there isn't.
-                            currentState.setV(0xF, 1);
-                        else
-                            currentState.setV(0xF, 0);
-                        currentState.setIndexReg(currentState.getIndexReg() + currentState.getV(opcode & 0x0F00 >> 8));
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    case 0x0029: // FX29: Sets I to the location of the sprite for the character in VX. Characters 0-F (in hexadecimal) are represented by a 4x5 font
-                        currentState.setIndexReg(currentState.getV((opcode & 0x0F00) >> 8) * 0x5);
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    case 0x0033: // FX33: Stores the Binary-coded decimal representation of VX at the addresses I, I plus 1, and I plus 2
-                        currentState.setMemAddr(currentState.getIndexReg(), currentState.getV((opcode & 0x0F00) >> 8) / 100);
-                        currentState.setMemAddr(currentState.getIndexReg() + 1, ((currentState.getV((opcode & 0x0F00) >> 8) / 10) % 10));
-                        currentState.setMemAddr(currentState.getIndexReg() + 2, ((currentState.getV((opcode & 0x0F00) >> 8) % 100) % 10));                 
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    case 0x0055: // FX55: Stores V0 to VX in memory starting at address I                   
-                        for (int i = 0; i <= ((opcode & 0x0F00) >> 8); ++i)
-                            currentState.setMemAddr(currentState.getIndexReg() + 1, currentState.getV(i));  
-
-                        // On the original interpreter, when the operation is done, I = I + X + 1.
-                        currentState.setIndexReg(currentState.getIndexReg() + ((opcode & 0x0F00) >> 8) + 1);
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    case 0x0065: // FX65: Fills V0 to VX with values from memory starting at address I                  
-                        for (int i = 0; i <= ((opcode & 0x0F00) >> 8); ++i)
-                            currentState.setV(i, currentState.getMemAddr(currentState.getIndexReg() + i));         
-
-                        // On the original interpreter, when the operation is done, I = I + X + 1.
-                        currentState.setIndexReg(currentState.getIndexReg() + ((opcode & 0x0F00) >> 8) + 1);
-                        currentState.incProgramCounter(2);
-                    break;
-
-                    default:
-                        printError(opcode);
-                }
-            break;
-
-            default:
-                printError(opcode);
-        }   
-
-        updateTimers();
+        int retired = table[opcode].execute(this, currentState);
+        currentState.addCycles(retired == 0 ? 1 : retired);
+        for(int i = 0; i < retired; i++)
+            updateTimers();
+        if(tracer != null)
+            tracer.record(pc, opcode, currentState);
+        if(debugger != null)
+            debugger.afterInstruction(currentState);
+    }
+    
+    /**
+     * Decodes the instruction at pc and caches it in State
+     * A compiled block is used if there is one at pc, else the table and Superinstructions decode it
+     * Instructions that cross a page are not cached, since a write to the next page would not clear them
+     * 
+     * @param pc Address of the instruction
+     * @return The decoded Instruction
+     */
+    private Instruction decode(int pc){
+        if(compiled != null){
+            Instruction block = compiled.blockAt(pc, currentState);
+            if(block != null){
+                currentState.setDecoded(pc, block, compiled.blockLength(pc));
+                return block;
+            }
+        }
+        if(romInfo != null && romInfo.isIdleLoop(pc)){
+            Superinstructions.IdleLoop loop = Superinstructions.decodeIdleLoop(table, currentState, pc);
+            if(loop != null){
+                currentState.setDecoded(pc, loop, loop.length());
+                return loop;
+            }
+        }
+        Instruction instruction = Superinstructions.decode(table, currentState, pc);
+        if((pc & 0xFF) <= State.PAGE_SIZE - 2)
+            currentState.setDecoded(pc, instruction);
+        return instruction;
     }
    
     /**
@@ -401,7 +266,7 @@ public class Chip8 implements CPU{
 
         if(currentState.getSoundTimer() > 0)
         {
-            if(currentState.getSoundTimer() == 1){//"Sound"{
+            if(currentState.getSoundTimer() == 1 && soundEnabled){//"Sound"{
                 beep();
             }
             currentState.setSoundTimer(currentState.getSoundTimer() - 1);
@@ -413,27 +278,303 @@ public class Chip8 implements CPU{
      * @see CPU#getWindow()
      */
     public boolean[][] getWindow(){
-        boolean[][] tempWindow = new boolean[X_DIM][Y_DIM];
-        for(int x = 0; x < X_DIM; x++)
-            for(int y = 0; y < Y_DIM; y++)
+        int width = currentState.getWidth(), height = currentState.getHeight();
+        boolean[][] tempWindow = new boolean[width][height];
+        for(int x = 0; x < width; x++)
+            for(int y = 0; y < height; y++)
                 tempWindow[x][y] = currentState.getWindowPos(x, y);
         return tempWindow;
     }
     
+    /**
+     * @see CPU#getWidth()
+     */
+    public int getWidth(){
+        return currentState.getWidth();
+    }
+    
+    /**
+     * @see CPU#getHeight()
+     */
+    public int getHeight(){
+        return currentState.getHeight();
+    }
+    
+    /**
+     * Packs the window from State into dest, a long at a time
+     * @see CPU#copyFramebuffer(byte[])
+     */
+    public void copyFramebuffer(byte[] dest){
+        copyPlanes(dest, (1 << PLANES) - 1);
+    }
+    
+    /**
+     * @see CPU#copyPlane(byte[], int)
+     */
+    public void copyPlane(byte[] dest, int plane){
+        copyPlanes(dest, 1 << plane);
+    }
+    
+    /**
+     * Packs the union of the planes in mask into dest
+     */
+    private void copyPlanes(byte[] dest, int mask){
+        int words = currentState.getWidth() / 64;
+        int out = 0;
+        for(int y = 0; y < currentState.getHeight(); y++)
+            for(int w = 0; w < words; w++){
+                long bits = 0;
+                for(int plane = 0; plane < PLANES; plane++)
+                    if((mask & 1 << plane) != 0)
+                        bits |= currentState.getWindowWord(plane, y, w);
+                for(int i = 0; i < 8; i++)
+                    dest[out++] = (byte)(bits >>> (56 - 8 * i));
+            }
+    }
+    
+    /**
+     * Forks the state, memory pages are shared copy-on-write
+     * The fork has no recorder, tracer, debugger, heatmap or latency tracer and keeps the sound setting
+     * @see CPU#fork()
+     */
+    public CPU fork(){
+        Chip8 copy = new Chip8(currentState.fork());
+        copy.soundEnabled = soundEnabled;
+        copy.table = table;
+        copy.profile = profile;
+        copy.profileChosen = profileChosen;
+        copy.romInfo = romInfo;
+        copy.compileCache = compileCache;
+        copy.compiled = compiled;
+        return copy;
+    }
+    
+    /**
+     * @see CPU#getRegister(int)
+     */
+    public int getRegister(int pos){
+        return currentState.getV(pos);
+    }
+    
+    /**
+     * @see CPU#getProgramCounter()
+     */
+    public int getProgramCounter(){
+        return currentState.getProgramCounter();
+    }
+    
+    /**
+     * @see CPU#getIndexRegister()
+     */
+    public int getIndexRegister(){
+        return currentState.getIndexReg();
+    }
+    
+    /**
+     * @see CPU#getStackPointer()
+     */
+    public int getStackPointer(){
+        return currentState.getStackPointer();
+    }
+    
+    /**
+     * @see CPU#getStack(int)
+     */
+    public int getStack(int level){
+        return currentState.getStack(level);
+    }
+    
+    /**
+     * @see CPU#getDelayTimer()
+     */
+    public int getDelayTimer(){
+        return currentState.getDelayTimer();
+    }
+    
+    /**
+     * @see CPU#getSoundTimer()
+     */
+    public int getSoundTimer(){
+        return currentState.getSoundTimer();
+    }
+    
+    /**
+     * @see CPU#getKey(int)
+     */
+    public int getKey(int loc){
+        return currentState.getKey(loc);
+    }
+    
+    /**
+     * @see CPU#getMemorySize()
+     */
+    public int getMemorySize(){
+        return currentState.getMemorySize();
+    }
+    
+    /**
+     * @see CPU#readMemory(int)
+     */
+    public int readMemory(int address){
+        return currentState.peekMemAddr(address);
+    }
+    
+    /**
+     * @see CPU#getFrameHash()
+     */
+    public long getFrameHash(){
+        return currentState.getFrameHash();
+    }
+    
     /**
      * Sets the key value to state
      * @see CPU#setKey(int, int)
      */
     public void setKey(int loc, int state){
-        currentState.setKey(loc, state);
+        if(latency != null && currentState.getKey(loc) != state)//Key repeats are not new events
+            latency.keyChanged(loc);
+        if(recorder != null)
+            recorder.keyChanged(loc, state);
+        else
+            currentState.setKey(loc, state);
+    }
+    
+    /**
+     * @see CPU#getCycleCount()
+     */
+    public long getCycleCount(){
+        return currentState.getCycleCount();
+    }
+    
+    /**
+     * @see CPU#getROMHash()
+     */
+    public long getROMHash(){
+        return currentState.getRomHash();
+    }
+    
+    /**
+     * @see CPU#setSeed(long)
+     */
+    public void setSeed(long seed){
+        currentState.setRandomSeed(seed);
+    }
+    
+    /**
+     * Key changes are queued by the recorder and applied at the start of the next cycle
+     * @see CPU#setInputRecorder(MovieRecorder)
+     */
+    public void setInputRecorder(MovieRecorder recorder){
+        this.recorder = recorder;
+    }
+    
+    /**
+     * @see CPU#setTracer(TraceLogger)
+     */
+    public void setTracer(TraceLogger tracer){
+        this.tracer = tracer;
+        if(tracer != null)
+            tracer.begin(currentState);
+    }
+    
+    /**
+     * Set by the Debugger itself when it is armed or disarmed
+     * @see CPU#setDebugger(Debugger)
+     */
+    public void setDebugger(Debugger debugger){
+        this.debugger = debugger;
+    }
+    
+    /**
+     * @see CPU#setLatencyTracer(LatencyTracer)
+     */
+    public void setLatencyTracer(LatencyTracer latency){
+        this.latency = latency;
+    }
+    
+    /**
+     * Called by the key instructions before the program reads a key
+     * @param key The key read
+     */
+    void observeKey(int key){
+        if(latency != null)
+            latency.keyObserved(key);
+    }
+    
+    /**
+     * @see CPU#setMemoryHeatmap(MemoryHeatmap)
+     */
+    public void setMemoryHeatmap(MemoryHeatmap heatmap){
+        this.heatmap = heatmap;
+        currentState.setHeatmap(heatmap);
+    }
+    
+    /**
+     * ROMs loaded afterwards are compiled, or loaded from the cache if already compiled
+     * @see CPU#setCompileCache(java.lang.String)
+     */
+    public void setCompileCache(String directory){
+        compileCache = directory == null ? null : new File(directory);
+    }
+    
+    /**
+     * Swaps in the table of profile, also for the ROMs loaded later, over the profiles of the ROM database
+     * @see CPU#setQuirkProfile(QuirkProfile)
+     */
+    public void setQuirkProfile(QuirkProfile profile){
+        this.profile = profile;
+        profileChosen = true;
+        useTable(profile.getTable());
+    }
+    
+    /**
+     * @see CPU#getQuirkProfile()
+     */
+    public QuirkProfile getQuirkProfile(){
+        if(!profileChosen && romInfo != null && romInfo.getProfile() != null)
+            return romInfo.getProfile();
+        return profile;
+    }
+    
+    /**
+     * @see CPU#getROMInfo()
+     */
+    public ROMDatabase.Entry getROMInfo(){
+        return romInfo;
+    }
+    
+    /**
+     * @return Table of the chosen profile, else of the profile the ROM database has for the ROM
+     */
+    private Instruction[] romTable(){
+        return getQuirkProfile().getTable();
+    }
+    
+    /**
+     * Swaps in table, decoded blocks are dropped as they were built from the old one
+     * @param table Instruction for each opcode
+     */
+    private void useTable(Instruction[] table){
+        this.table = table;
+        currentState.clearDecoded();
+        //Compiled code only mirrors the standard instruction set
+        if(table != InstructionTable.TABLE)
+            compiled = null;
+    }
+    
+    /**
+     * @see CPU#setSoundEnabled(boolean)
+     */
+    public void setSoundEnabled(boolean enabled){
+        soundEnabled = enabled;
     }
     
     /**
      * Saves state using ApplicationLoader with the given fileName
      * @see CPU#saveState(java.lang.String)
      */
-    public void saveState(String fileName){
-        ApplicationLoader.writeState(currentState, fileName);
+    public boolean saveState(String fileName){
+        return ApplicationLoader.writeState(currentState, fileName);
     }
 
     /**
@@ -446,31 +587,63 @@ public class Chip8 implements CPU{
     }
     
     /**
-     * Prints an error to the console with the given opcodes and all opcodes leading up to it
+     * Prints an error to the console with the given opcodes and the opcodes leading up to it
      * For debugging purposes
      * 
      * @param opcode The opcode when the error was caused
      */
-    private void printError(int opcode){
+    void printError(int opcode){
         //Print opcode and hex version
         System.out.println(currentState.toString() + "\nOpcode: " + Integer.toHexString(opcode));
-        //Print all prior opcodes
-        for(String i : opcodes)
-            System.out.print(i + " ");
+        //Print the prior opcodes still in the history, oldest first
+        long first = Math.max(0, opcodeCount - OPCODE_HISTORY);
+        for(long i = first; i < opcodeCount; i++)
+            System.out.print(Integer.toHexString(opcodes[(int)(i & (OPCODE_HISTORY - 1))]) + " ");
         System.out.println();
     }
 
     /**
      * Plays a beep sound from "button-10.wav"
-     * Returns an error if there is a problem playing sound
+     * Opening the audio system is slow, so the clip is loaded on a background
+     * thread at the first beep, which plays once it is loaded. The clip is
+     * rewound for every later beep
      */
     private void beep(){
+        Clip clip = beepClip;
+        if(clip == null){
+            if(!beepLoading){
+                beepLoading = true;
+                Thread loader = new Thread(new Runnable(){
+                    public void run(){
+                        Clip loaded = loadBeep();
+                        if(loaded != null){
+                            beepClip = loaded;
+                            loaded.start();
+                        }
+                    }
+                }, "BeepLoader");
+                loader.setDaemon(true);
+                loader.start();
+            }
+            return;
+        }
+        //Rewind and play clip
+        clip.stop();
+        clip.setFramePosition(0);
+        clip.start();
+    }
+    
+    /**
+     * Loads "button-10.wav"
+     * Returns an error if there is a problem loading sound
+     * @return The clip, or null if it could not be loaded
+     */
+    private static Clip loadBeep(){
         try {
-            //Load sound and play clip
             AudioInputStream audio = AudioSystem.getAudioInputStream(new File("button-10.wav"));
             Clip clip = AudioSystem.getClip();
             clip.open(audio);
-            clip.start();
+            return clip;
         }
         
         catch(UnsupportedAudioFileException uae) {
@@ -482,6 +655,7 @@ public class Chip8 implements CPU{
         catch(LineUnavailableException lua) {
             lua.printStackTrace();
         }
+        return null;
     }
 }
 
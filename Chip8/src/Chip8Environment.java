@@ -0,0 +1,156 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A training environment around a CPU for agents that play a ROM
+ * An action is a key index, or NO_KEY, that is held for a number of frames
+ * (action repeat) and only the last of those frames is observed (frame skip).
+ * Observations are written into a buffer supplied by the caller, so a
+ * direct ByteBuffer can be shared with native code without copying, and
+ * nothing is allocated per step.
+ *
+ * Observations start at index 0 of the buffer and the buffer position is
+ * not changed. PACKED observations take CPU.FRAME_BYTES bytes, one bit per
+ * pixel as in CPU#copyFramebuffer. BYTES observations take X_DIM * Y_DIM
+ * bytes in row order, 0 for an unset pixel and 255 for a set pixel.
+ * Observations keep that size in the 128x64 mode, an observed pixel is then
+ * set if any pixel of its 2x2 block is.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class Chip8Environment {
+    public static final int NO_KEY = -1;
+    public static final int PACKED = 0, BYTES = 1;
+
+    private final CPU cpu;
+    private final int[] rom;
+    private final RewardFunction reward;
+    private final int cyclesPerFrame;
+    private final int format;
+    private final byte[] frame;
+    private final byte[] screen = new byte[CPU.MAX_FRAME_BYTES];
+    private int heldKey = NO_KEY;
+    private boolean done;
+
+    /**
+     * @param cpu The CPU to run the ROM on
+     * @param rom The ROM as returned by ApplicationLoader#getROMFromFile
+     * @param reward Scores each frame and ends episodes
+     * @param cyclesPerFrame Number of cycles emulated per frame
+     * @param format PACKED or BYTES observations
+     */
+    public Chip8Environment(CPU cpu, int[] rom, RewardFunction reward, int cyclesPerFrame, int format){
+        this.cpu = cpu;
+        this.rom = rom;
+        this.reward = reward;
+        this.cyclesPerFrame = cyclesPerFrame;
+        this.format = format;
+        frame = new byte[CPU.FRAME_BYTES];
+        cpu.setSoundEnabled(false);
+    }
+
+    /**
+     * Restarts the ROM with a new seed
+     *
+     * @param seed Seed of the random number generator
+     * @param observation Receives the first frame
+     */
+    public void reset(long seed, ByteBuffer observation){
+        cpu.loadROM(rom);
+        cpu.setSeed(seed);
+        heldKey = NO_KEY;
+        done = false;
+        reward.reset(cpu);
+        observe(observation);
+    }
+
+    /**
+     * Holds action for frames frames and observes the last one
+     *
+     * @param action Key to hold, or NO_KEY
+     * @param frames Number of frames to hold it for
+     * @param observation Receives the last frame
+     * @return The sum of the rewards of the frames
+     */
+    public double step(int action, int frames, ByteBuffer observation){
+        if(action != heldKey){
+            if(heldKey != NO_KEY)
+                cpu.setKey(heldKey, 0);
+            if(action != NO_KEY)
+                cpu.setKey(action, 1);
+            heldKey = action;
+        }
+
+        double total = 0;
+        for(int f = 0; f < frames && !done; f++){
+            //Fused instructions retire several cycles a call, so frames end on exact cycle counts
+            long frameEnd = cpu.getCycleCount() + cyclesPerFrame;
+            while(cpu.getCycleCount() < frameEnd)
+                cpu.emulateCycle(frameEnd);
+            total += reward.reward(cpu);
+            done = reward.isDone(cpu);
+        }
+        observe(observation);
+        return total;
+    }
+
+    /**
+     * @return True if the episode ended, reset must be called before stepping again
+     */
+    public boolean isDone(){
+        return done;
+    }
+
+    /**
+     * @return The CPU of the environment
+     */
+    public CPU getCPU(){
+        return cpu;
+    }
+
+    /**
+     * @return Number of bytes an observation takes
+     */
+    public int getObservationSize(){
+        return format == PACKED ? CPU.FRAME_BYTES : CPU.X_DIM * CPU.Y_DIM;
+    }
+
+    /**
+     * Writes the current frame into observation in the chosen format
+     */
+    private void observe(ByteBuffer observation){
+        if(observation == null)
+            return;
+        if(cpu.getWidth() == CPU.X_DIM)
+            cpu.copyFramebuffer(frame);
+        else{
+            cpu.copyFramebuffer(screen);
+            halve();
+        }
+        if(format == PACKED){
+            for(int i = 0; i < frame.length; i++)
+                observation.put(i, frame[i]);
+            return;
+        }
+        for(int i = 0; i < CPU.X_DIM * CPU.Y_DIM; i++)
+            observation.put(i, (frame[i >> 3] & (0x80 >> (i & 7))) != 0 ? (byte)255 : 0);
+    }
+
+    /**
+     * Shrinks the 128x64 screen into frame, ORing each 2x2 block of pixels
+     */
+    private void halve(){
+        int rowBytes = CPU.HIRES_X_DIM / 8;
+        for(int y = 0; y < CPU.Y_DIM; y++)
+            for(int b = 0; b < CPU.X_DIM / 8; b++){
+                int top = 2 * y * rowBytes + 2 * b;
+                int pixels = ((screen[top] | screen[top + rowBytes]) & 0xFF) << 8
+                        | (screen[top + 1] | screen[top + rowBytes + 1]) & 0xFF;
+                int out = 0;
+                for(int i = 0; i < 8; i++)
+                    if((pixels >> (14 - 2 * i) & 3) != 0)
+                        out |= 0x80 >> i;
+                frame[y * (CPU.X_DIM / 8) + b] = (byte)out;
+            }
+    }
+}
@@ -1,9 +1,26 @@
+import java.io.File;
 
 /**
  * Main runner method for the Chip8 emulator
  * Initializes Chip8 and Window and then begins emulation
- * User must choose new file to load from options in menu
- * 
+ * A ROM or save given on the command line is loaded before the window is
+ * built, so its first frame is shown as soon as the window is. Otherwise
+ * nothing is emulated until the user chooses a file from the menu.
+ * Emulation slows down or pauses when the window loses focus, see Window#throttle()
+ *
+ * Usage: java Chip8Runner [<rom file>] [-state <save file>] [-quirks <profile>] [-exitAfter <cycles>]
+ * -exitAfter exits once that many cycles ran, for training runs
+ *
+ * Startup is mostly class loading, which an AppCDS archive (JDK 13 or later)
+ * takes off the startup path. Archived classes must come from a jar:
+ *   jar cf chip8.jar -C bin .
+ * A training run with a ROM writes the archive:
+ *   java -XX:ArchiveClassesAtExit=chip8.jsa -cp chip8.jar Chip8Runner game.ch8 -exitAfter 1000000
+ * and every later start maps it:
+ *   java -XX:SharedArchiveFile=chip8.jsa -cp chip8.jar Chip8Runner game.ch8
+ * The archive only holds the classes the training run loaded, and must be
+ * written again when the jar or the JDK change, else it is ignored.
+ *
  * @author David Watkins, Nadine Chang, Dhruv Purushottam
  * @UNI: djw2146, nc2539, dp2631
  */
@@ -11,12 +28,40 @@ public class Chip8Runner {
     public static void main(String[] args) throws InterruptedException{
         CPU cpu = new Chip8();
         cpu.initState();
+        String rom = null, state = null;
+        long exitAfter = Long.MAX_VALUE;
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("-state") && i + 1 < args.length)
+                state = args[++i];
+            else if(args[i].equals("-quirks") && i + 1 < args.length){
+                QuirkProfile profile = QuirkProfile.forId(args[++i]);
+                if(profile == null){
+                    System.out.println("Unknown quirk profile " + args[i]);
+                    return;
+                }
+                cpu.setQuirkProfile(profile);
+            }
+            else if(args[i].equals("-exitAfter") && i + 1 < args.length)
+                exitAfter = Long.parseLong(args[++i]);
+            else
+                rom = args[i];
+        }
+        if(rom != null)
+            cpu.loadROM(rom);
+        if(state != null)
+            cpu.loadState(state);
+
         Window w = new Window(cpu);
-        
-        while(true){
+        if(rom != null || state != null)
+            w.opened(rom == null ? null : new File(rom));
+        else
+            w.awaitROM();
+
+        while(cpu.getCycleCount() < exitAfter){
             cpu.emulateCycle();
             w.display();
-            //Thread.sleep((long) 0.1);
+            w.throttle();
         }
+        System.exit(0);
     }
 }
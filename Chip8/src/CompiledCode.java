@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/**
+ * Base class of the classes AOTCompiler translates ROMs into
+ * A translated ROM is a set of basic blocks, each compiled to a method that
+ * runs the whole block and returns the number of instructions it retired.
+ * A block is only used while memory still holds the bytes it was compiled
+ * from, otherwise the interpreter runs that code instead.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public abstract class CompiledCode {
+    private final int[] rom;
+    private final int[] blockIndex;//Block starting at each address, or -1
+    private final int[] blockStart, blockEnd;
+    private final Instruction[] blocks;
+
+    /**
+     * @param rom The ROM the blocks were compiled from
+     * @param blockStart First address of each block
+     * @param blockEnd Address after the last byte each block was compiled from, which for a block
+     * ending in a skip includes the opcode it skips
+     */
+    protected CompiledCode(int[] rom, int[] blockStart, int[] blockEnd){
+        this.rom = rom;
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+        blockIndex = new int[CPU.ROM_OFFSET + rom.length];
+        Arrays.fill(blockIndex, -1);
+        blocks = new Instruction[blockStart.length];
+        for(int i = 0; i < blockStart.length; i++){
+            blockIndex[blockStart[i]] = i;
+            blocks[i] = new Block(i);
+        }
+    }
+
+    /**
+     * Runs a block
+     *
+     * @param block Index of the block
+     * @param cpu The Chip8 running the block
+     * @param s The state of cpu
+     * @return Number of instructions retired
+     */
+    protected abstract int run(int block, Chip8 cpu, State s);
+
+    /**
+     * Returns the block starting at pc if memory still holds its code
+     *
+     * @param pc Address of the block
+     * @param s State holding the code
+     * @return The block, or null if there is no valid block at pc
+     */
+    public Instruction blockAt(int pc, State s){
+        if(pc < 0 || pc >= blockIndex.length || blockIndex[pc] < 0)
+            return null;
+        int block = blockIndex[pc];
+        for(int address = blockStart[block]; address < blockEnd[block]; address++)
+            if(s.peekMemAddr(address) != rom[address - CPU.ROM_OFFSET])
+                return null;//Code was modified since it was compiled
+        return blocks[block];
+    }
+
+    /**
+     * @param pc Address of a block
+     * @return Number of bytes the block was compiled from
+     */
+    public int blockLength(int pc){
+        int block = blockIndex[pc];
+        return blockEnd[block] - blockStart[block];
+    }
+
+    /**
+     * @return Number of compiled blocks
+     */
+    public int getBlockCount(){
+        return blocks.length;
+    }
+
+    /**
+     * Runs a compiled block as a single Instruction
+     */
+    private class Block extends Instruction {
+        private final int block;
+
+        Block(int block){
+            this.block = block;
+        }
+
+        public int execute(Chip8 cpu, State s){
+            return run(block, cpu, s);
+        }
+
+        public int maxRetired(){
+            return (blockEnd[block] - blockStart[block]) / 2;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+import java.util.ArrayList;
+
+/**
+ * Breakpoints, watchpoints and stepping for a CPU
+ * The debugger only hooks into the CPU while it is armed, that is while it
+ * has a breakpoint or watchpoint, is paused or is stepping. An unarmed
+ * debugger is detached, so the CPU runs at full speed with fused and compiled
+ * code. While armed the CPU runs one instruction at a time and asks the
+ * debugger before each one.
+ *
+ * Breakpoints and watchpoints are kept in bitmaps with a bit per address, so
+ * the check before an instruction is a few shifts however many are set.
+ * The CPU stops before the instruction at a breakpoint runs, and before an
+ * instruction that would read or write a watched address, so the state can be
+ * inspected before it changes. Fetching an instruction is not a read, but
+ * the address F000 NNNN loads into I is, as it is read like data.
+ *
+ * The debugger may be changed from another thread, such as the UI, while the
+ * CPU runs. A paused CPU blocks in emulateCycle until it is resumed or
+ * stepped, so loops that run cycles until a count is reached do not spin.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class Debugger {
+    //Stop reasons
+    public static final int PAUSED = 0, BREAKPOINT = 1, WATCH_READ = 2, WATCH_WRITE = 3, STEP = 4;
+    //Stepping modes
+    private static final int RUN = 0, STEP_INTO = 1, STEP_OVER = 2;
+
+    private final CPU cpu;
+    private final long[] breakpoints = new long[CPU.XO_MEMORY_SIZE / 64];//Any breakpoint, conditional or not
+    private final long[] unconditional = new long[CPU.XO_MEMORY_SIZE / 64];
+    private final long[] readWatch = new long[CPU.XO_MEMORY_SIZE / 64];
+    private final long[] writeWatch = new long[CPU.XO_MEMORY_SIZE / 64];
+    private final ArrayList<Condition> conditions = new ArrayList<Condition>();
+    private int breakpointCount, watchCount;
+    private BreakListener listener;
+
+    private volatile boolean paused;
+    private volatile int mode = RUN;
+    private volatile boolean resuming;//Run the next instruction even if it would stop
+    private int returnAddress = -1, returnDepth;//Where a step over stops
+
+    /**
+     * Breaks at an address when a register holds a value
+     */
+    private static class Condition {
+        final int address, register, value;
+        Condition(int address, int register, int value){
+            this.address = address; this.register = register; this.value = value;
+        }
+    }
+
+    /**
+     * Creates a debugger for cpu, the debugger attaches itself when armed
+     *
+     * @param cpu The CPU to debug
+     */
+    public Debugger(CPU cpu){
+        this.cpu = cpu;
+    }
+
+    /**
+     * Stops before the instruction at address runs
+     *
+     * @param address Address of the instruction
+     */
+    public synchronized void addBreakpoint(int address){
+        set(unconditional, address, true);
+        setBreakpointBit(address);
+        update();
+    }
+
+    /**
+     * Stops before the instruction at address runs if V[register] equals value
+     *
+     * @param address Address of the instruction
+     * @param register Register to test
+     * @param value Value the register must hold
+     */
+    public synchronized void addBreakpoint(int address, int register, int value){
+        conditions.add(new Condition(address, register, value));
+        setBreakpointBit(address);
+        update();
+    }
+
+    /**
+     * Removes every breakpoint at address, conditional or not
+     *
+     * @param address Address of the instruction
+     */
+    public synchronized void removeBreakpoint(int address){
+        if(!get(breakpoints, address))
+            return;
+        set(breakpoints, address, false);
+        set(unconditional, address, false);
+        for(int i = conditions.size() - 1; i >= 0; i--)
+            if(conditions.get(i).address == address)
+                conditions.remove(i);
+        breakpointCount--;
+        update();
+    }
+
+    private void setBreakpointBit(int address){
+        if(!get(breakpoints, address)){
+            set(breakpoints, address, true);
+            breakpointCount++;
+        }
+    }
+
+    /**
+     * Stops before an instruction reads or writes any address from start to end
+     * Reads are DXYN, FX65, 5XY3, F002 and the NNNN of F000 NNNN, writes are FX33, FX55 and 5XY2
+     *
+     * @param start First address watched
+     * @param end Last address watched
+     * @param read True to stop on reads
+     * @param write True to stop on writes
+     */
+    public synchronized void addWatchpoint(int start, int end, boolean read, boolean write){
+        for(int address = start; address <= end; address++){
+            if(!get(readWatch, address) && !get(writeWatch, address) && (read || write))
+                watchCount++;
+            if(read)
+                set(readWatch, address, true);
+            if(write)
+                set(writeWatch, address, true);
+        }
+        update();
+    }
+
+    /**
+     * Removes the watchpoints from start to end
+     *
+     * @param start First address
+     * @param end Last address
+     */
+    public synchronized void removeWatchpoint(int start, int end){
+        for(int address = start; address <= end; address++){
+            if(get(readWatch, address) || get(writeWatch, address))
+                watchCount--;
+            set(readWatch, address, false);
+            set(writeWatch, address, false);
+        }
+        update();
+    }
+
+    /**
+     * Stops the CPU before its next instruction
+     */
+    public synchronized void pause(){
+        paused = true;
+        update();
+    }
+
+    /**
+     * Lets a paused CPU run until the next breakpoint or watchpoint
+     */
+    public synchronized void resume(){
+        mode = RUN;
+        run();
+    }
+
+    /**
+     * Runs one instruction and pauses again
+     */
+    public synchronized void step(){
+        mode = STEP_INTO;
+        run();
+    }
+
+    /**
+     * Runs one instruction and pauses again, a call is run until it returns
+     */
+    public synchronized void stepOver(){
+        mode = STEP_OVER;
+        returnAddress = -1;
+        run();
+    }
+
+    private void run(){
+        if(paused)
+            resuming = true;//The instruction the CPU stopped at runs first
+        paused = false;
+        update();
+        notifyAll();
+    }
+
+    /**
+     * @return True if the CPU is stopped
+     */
+    public boolean isPaused(){
+        return paused;
+    }
+
+    /**
+     * @param listener Receives every stop, or null
+     */
+    public synchronized void setBreakListener(BreakListener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * @return True if the CPU has to check with the debugger before each instruction
+     */
+    public synchronized boolean isArmed(){
+        return paused || mode != RUN || breakpointCount > 0 || watchCount > 0;
+    }
+
+    /**
+     * Attaches to the CPU while armed and detaches otherwise
+     */
+    private void update(){
+        cpu.setDebugger(isArmed() ? this : null);
+    }
+
+    /**
+     * Called by the CPU before running an instruction
+     *
+     * @param pc Address of the instruction
+     * @param opcode The instruction
+     * @param s State the instruction will run on
+     * @return True if the instruction must not run
+     */
+    boolean beforeInstruction(int pc, int opcode, State s){
+        if(paused && !awaitResume())
+            return true;
+        if(mode == STEP_OVER && returnAddress < 0){
+            if(InstructionTable.TABLE[opcode] instanceof InstructionTable.Call){
+                returnAddress = pc + 2;
+                returnDepth = s.getStackPointer();
+            }
+            else
+                mode = STEP_INTO;
+        }
+        if(resuming){
+            resuming = false;
+            return false;
+        }
+
+        if(get(breakpoints, pc) && breakpointHit(pc, s))
+            return stop(BREAKPOINT, pc);
+        if(watchCount > 0){
+            Instruction instruction = InstructionTable.TABLE[opcode];
+            int index = s.getIndexReg();
+            int x = (opcode & 0x0F00) >> 8;
+            int y = (opcode & 0x00F0) >> 4;
+            if(instruction instanceof InstructionTable.Draw){
+                int bytes = (opcode & 0x000F) == 0 ? 32 : opcode & 0x000F;//Per plane
+                return watched(readWatch, index, bytes * Integer.bitCount(s.getPlaneMask()), WATCH_READ);
+            }
+            if(instruction instanceof InstructionTable.Load)
+                return watched(readWatch, index, x + 1, WATCH_READ);
+            if(instruction instanceof InstructionTable.LoadRange)
+                return watched(readWatch, index, Math.abs(y - x) + 1, WATCH_READ);
+            if(instruction instanceof InstructionTable.AudioPattern)
+                return watched(readWatch, index, 16, WATCH_READ);
+            if(instruction instanceof InstructionTable.LongIndex)
+                return watched(readWatch, pc + 2, 2, WATCH_READ);
+            if(instruction instanceof InstructionTable.BCD)
+                return watched(writeWatch, index, 3, WATCH_WRITE);
+            if(instruction instanceof InstructionTable.Store)
+                return watched(writeWatch, index, x + 1, WATCH_WRITE);
+            if(instruction instanceof InstructionTable.SaveRange)
+                return watched(writeWatch, index, Math.abs(y - x) + 1, WATCH_WRITE);
+        }
+        return false;
+    }
+
+    /**
+     * Blocks the CPU thread while paused
+     * @return False if the thread was interrupted while still paused
+     */
+    private synchronized boolean awaitResume(){
+        while(paused){
+            try{
+                wait();
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called by the CPU after running an instruction, stops when a step is done
+     *
+     * @param s State after the instruction ran
+     */
+    void afterInstruction(State s){
+        int pc = s.getProgramCounter();
+        if(mode == STEP_INTO || (mode == STEP_OVER && pc == returnAddress && s.getStackPointer() <= returnDepth)){
+            synchronized(this){
+                mode = RUN;
+            }
+            stop(STEP, pc);
+        }
+    }
+
+    private synchronized boolean breakpointHit(int pc, State s){
+        if(get(unconditional, pc))
+            return true;
+        for(int i = 0; i < conditions.size(); i++){
+            Condition c = conditions.get(i);
+            if(c.address == pc && s.getV(c.register) == c.value)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean watched(long[] bitmap, int start, int length, int reason){
+        for(int address = start; address < start + length; address++)
+            if(get(bitmap, address))
+                return stop(reason, address);
+        return false;
+    }
+
+    private boolean stop(int reason, int address){
+        BreakListener l;
+        synchronized(this){
+            paused = true;
+            update();
+            l = listener;
+        }
+        if(l != null)
+            l.breakHit(this, reason, address);
+        return true;
+    }
+
+    private static boolean get(long[] bitmap, int address){
+        return address >= 0 && address < CPU.XO_MEMORY_SIZE && (bitmap[address >> 6] & 1L << address) != 0;
+    }
+
+    private static void set(long[] bitmap, int address, boolean value){
+        if(address < 0 || address >= CPU.XO_MEMORY_SIZE)
+            return;
+        if(value)
+            bitmap[address >> 6] |= 1L << address;
+        else
+            bitmap[address >> 6] &= ~(1L << address);
+    }
+}
@@ -0,0 +1,250 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.imageio.ImageIO;
+
+/**
+ * Captures the published frames of a session to a file
+ * The emulation thread copies each packed frame into a bounded ring and a
+ * background thread encodes it, so encoding never blocks emulation.
+ * When the encoder falls behind, frames are dropped and counted instead.
+ *
+ * The output is a run length encoded stream (big endian):
+ * int MAGIC, byte VERSION, short width, short height
+ * For each frame: varint cycles since last frame, then if the resolution
+ * changed byte RESIZE, short width, short height, then byte REPEAT or
+ * byte FRAME followed by (varint run length, byte value) pairs covering
+ * width * height / 8 bytes
+ * At the end: varint 0, byte END
+ *
+ * Usage: java FrameCapture <capture file> <output directory>
+ * Exports every frame of a capture as a PNG image
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class FrameCapture implements FrameListener, Runnable {
+    public static final int MAGIC = 0x4338524C;//"C8RL"
+    public static final int VERSION = 2;
+    public static final int REPEAT = 0, FRAME = 1, RESIZE = 2, END = 0xFF;
+
+    //Ring of frames shared between the emulation and encoder thread
+    private final byte[][] frames;
+    private final long[] cycles;
+    private final int[] widths, heights;
+    private final AtomicLong head = new AtomicLong();//Next frame to encode
+    private final AtomicLong tail = new AtomicLong();//Next free slot
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+
+    private final DataOutputStream out;
+    private final Thread encoder;
+    private byte[] previous;
+    private int width = CPU.X_DIM, height = CPU.Y_DIM;//Resolution of previous
+    private long lastCycle;
+    private volatile long encoded;
+
+    /**
+     * Creates the capture file and starts the encoder thread
+     *
+     * @param fileName Name of the capture file
+     * @param capacity Number of frames the ring can hold
+     * @throws IOException If the file cannot be created
+     */
+    public FrameCapture(String fileName, int capacity) throws IOException{
+        frames = new byte[capacity][CPU.MAX_FRAME_BYTES];
+        cycles = new long[capacity];
+        widths = new int[capacity];
+        heights = new int[capacity];
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeShort(CPU.X_DIM);
+        out.writeShort(CPU.Y_DIM);
+
+        encoder = new Thread(this, "Frame encoder");
+        encoder.setDaemon(true);
+        encoder.start();
+    }
+
+    /**
+     * Copies the frame into the ring, or drops it if the ring is full
+     * @see FrameListener#frameReady(CPU)
+     */
+    public void frameReady(CPU cpu){
+        long t = tail.get();
+        if(t - head.get() == frames.length){
+            dropped.incrementAndGet();
+            return;
+        }
+        int slot = (int)(t % frames.length);
+        cpu.copyFramebuffer(frames[slot]);
+        cycles[slot] = cpu.getCycleCount();
+        widths[slot] = cpu.getWidth();
+        heights[slot] = cpu.getHeight();
+        tail.lazySet(t + 1);//Publishes the slot to the encoder
+    }
+
+    /**
+     * Encoder thread, drains the ring until stopped
+     */
+    public void run(){
+        try{
+            while(true){
+                long h = head.get();
+                if(h == tail.get()){
+                    if(!running)
+                        break;
+                    LockSupport.parkNanos(1000000);
+                    continue;
+                }
+                int slot = (int)(h % frames.length);
+                encode(frames[slot], widths[slot], heights[slot], cycles[slot]);
+                head.lazySet(h + 1);//Hands the slot back to the emulation thread
+            }
+            MovieRecorder.writeVarLong(out, 0);
+            out.writeByte(END);
+            out.close();
+        }
+        catch(IOException e){
+            System.out.println("Cannot write capture");
+        }
+    }
+
+    /**
+     * Writes one frame, identical consecutive frames are stored as REPEAT
+     */
+    private void encode(byte[] frame, int frameWidth, int frameHeight, long cycle) throws IOException{
+        MovieRecorder.writeVarLong(out, cycle - lastCycle);
+        lastCycle = cycle;
+        encoded++;
+        int length = frameWidth * frameHeight / 8;
+        if(frameWidth != width || frameHeight != height){
+            out.writeByte(RESIZE);
+            out.writeShort(frameWidth);
+            out.writeShort(frameHeight);
+            width = frameWidth;
+            height = frameHeight;
+            previous = null;
+        }
+        if(previous != null && same(previous, frame, length)){
+            out.writeByte(REPEAT);
+            return;
+        }
+        if(previous == null)
+            previous = new byte[CPU.MAX_FRAME_BYTES];
+        System.arraycopy(frame, 0, previous, 0, length);
+
+        out.writeByte(FRAME);
+        int i = 0;
+        while(i < length){
+            int run = 1;
+            while(i + run < length && frame[i + run] == frame[i])
+                run++;
+            MovieRecorder.writeVarLong(out, run);
+            out.writeByte(frame[i]);
+            i += run;
+        }
+    }
+
+    private static boolean same(byte[] a, byte[] b, int length){
+        for(int i = 0; i < length; i++)
+            if(a[i] != b[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Stops capturing, waits for the encoder to write the remaining frames
+     *
+     * @return Number of frames dropped because the encoder fell behind
+     */
+    public long stop(){
+        running = false;
+        try{
+            encoder.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        return dropped.get();
+    }
+
+    /**
+     * @return Number of frames dropped so far
+     */
+    public long getDropped(){
+        return dropped.get();
+    }
+
+    /**
+     * @return Number of frames encoded so far
+     */
+    public long getEncoded(){
+        return encoded;
+    }
+
+    public static void main(String[] args) throws IOException{
+        if(args.length < 2){
+            System.out.println("Usage: java FrameCapture <capture file> <output directory>");
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+        try{
+            if(in.readInt() != MAGIC || in.readUnsignedByte() != VERSION){
+                System.out.println("Not a capture file");
+                return;
+            }
+            int width = in.readUnsignedShort();
+            int height = in.readUnsignedShort();
+            byte[] frame = new byte[width * height / 8];
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            File dir = new File(args[1]);
+            dir.mkdirs();
+
+            int count = 0;
+            while(true){
+                MovieRecorder.readVarLong(in);
+                int type = in.readUnsignedByte();
+                if(type == END)
+                    break;
+                if(type == RESIZE){
+                    width = in.readUnsignedShort();
+                    height = in.readUnsignedShort();
+                    frame = new byte[width * height / 8];
+                    image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                    type = in.readUnsignedByte();
+                }
+                if(type == FRAME)
+                    for(int i = 0; i < frame.length;){
+                        int run = (int)MovieRecorder.readVarLong(in);
+                        Arrays.fill(frame, i, i + run, in.readByte());
+                        i += run;
+                    }
+                for(int y = 0; y < height; y++)
+                    for(int x = 0; x < width; x++){
+                        boolean on = (frame[(y * width + x) >> 3] & (0x80 >> (x & 7))) != 0;
+                        image.setRGB(x, y, on ? 0xFFFFFF : 0x000000);
+                    }
+                ImageIO.write(image, "png", new File(dir, String.format("frame%06d.png", count++)));
+            }
+            System.out.println("Exported " + count + " frames");
+        }
+        catch(EOFException e){
+            System.out.println("Capture ended early");
+        }
+        finally{
+            in.close();
+        }
+    }
+}
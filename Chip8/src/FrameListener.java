@@ -0,0 +1,15 @@
+/**
+ * Receives every frame the emulator publishes to the screen
+ * Called on the emulation thread, so implementations must return quickly
+ * 
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public interface FrameListener {
+    /**
+     * Called after the CPU has drawn a new frame
+     * 
+     * @param cpu The CPU holding the frame
+     */
+    public void frameReady(CPU cpu);
+}
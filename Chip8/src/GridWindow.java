@@ -0,0 +1,284 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+
+/**
+ * Shows many Chip8 machines as tiles of one window
+ * A single render thread runs every frame: all machines run a frame's worth
+ * of cycles on a fork join pool, then only tiles whose frame hash changed
+ * are scaled into the shared image and repainted. A machine that is not
+ * drawing costs no rendering.
+ *
+ * Clicking a tile focuses it: the keyboard goes to its machine, with the key
+ * map of its ROM, and only it beeps. The focused tile has a border.
+ * Machines run the cycles per frame of their ROM in the ROM database, or
+ * DEFAULT_CYCLES_PER_FRAME for unknown ROMs.
+ *
+ * Usage: java GridWindow <rom file>... [-copies <n>] [-columns <n>] [-quirks <profile>]
+ * Each ROM is run copies times, tiles fill columns columns, as square as possible by default
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class GridWindow extends JPanel {
+    private static final long serialVersionUID = 1L;
+    public static final int TILE_WIDTH = CPU.HIRES_X_DIM * 2, TILE_HEIGHT = CPU.HIRES_Y_DIM * 2;
+    public static final int BORDER = 3;//Around each tile, drawn in FOCUS_COLOR on the focused tile
+    public static final int ON_COLOR = 0xFFFFFF, OFF_COLOR = 0x000000, GAP_COLOR = 0x202020, FOCUS_COLOR = 0xE0A000;
+    public static final int DEFAULT_CYCLES_PER_FRAME = Integer.getInteger("chip8.gridCycles", 10);
+
+    private final JFrame frame = new JFrame();
+    private final Tile[] tiles;
+    private final int columns, rows;
+    private final int width, height;
+    private final BufferedImage image;//Written under its lock by the render thread, painted by Swing
+    private final int[] pixels;
+    private final KeyListenerClass keyListener;
+    private final ForkJoinPool pool;
+    private final RunAll root = new RunAll();
+    private volatile int focus;//Tile the keyboard goes to, set by clicks
+    private int shownFocus = -1;//Tile drawn with the focus border and given the beep
+    private long frameDeadline;
+
+    /**
+     * One machine and the part of the image it is shown in
+     */
+    private class Tile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final CPU cpu;
+        private final int left, top;//Of the tile inside its border
+        private final byte[] frameBuffer = new byte[CPU.MAX_FRAME_BYTES];
+        private long shownHash;//Frame hash of the image of the tile
+        private int shownWidth;//Width of that frame, blank frames of both sizes hash the same
+        private boolean dirty = true;//Frame changed since the tile was drawn
+        private long frameEnd;//Cycle count the current frame runs to
+
+        Tile(CPU cpu, int index){
+            this.cpu = cpu;
+            frameEnd = cpu.getCycleCount();
+            left = index % columns * (TILE_WIDTH + BORDER * 2) + BORDER;
+            top = index / columns * (TILE_HEIGHT + BORDER * 2) + BORDER;
+        }
+
+        /**
+         * Runs the machine for a frame and takes its frame if it changed
+         */
+        protected void compute(){
+            ROMDatabase.Entry info = cpu.getROMInfo();
+            int budget = info == null || info.getCyclesPerFrame() == 0 ? DEFAULT_CYCLES_PER_FRAME : info.getCyclesPerFrame();
+            //Fused instructions and idle loops retire several cycles a call, what a frame
+            //runs over is taken from the next one, as Window#pace does
+            frameEnd += budget;
+            while(cpu.getCycleCount() < frameEnd)
+                cpu.emulateCycle();
+            if(!cpu.getDrawFlag())
+                return;
+            cpu.setDrawFlag(false);
+            long hash = cpu.getFrameHash();
+            if(hash == shownHash && cpu.getWidth() == shownWidth && !dirty)
+                return;
+            shownHash = hash;
+            shownWidth = cpu.getWidth();
+            cpu.copyFramebuffer(frameBuffer);
+            dirty = true;
+        }
+
+        /**
+         * Scales the frame into the image, nearest neighbour, the image lock must be held
+         */
+        void draw(){
+            int scale = TILE_WIDTH / shownWidth;
+            int rowBytes = shownWidth >> 3;
+            for(int y = 0; y < TILE_HEIGHT; y++){
+                int row = y / scale * rowBytes;
+                int out = (top + y) * width + left;
+                for(int x = 0; x < TILE_WIDTH; x++){
+                    int fx = x / scale;
+                    boolean on = (frameBuffer[row + (fx >> 3)] >> (7 - (fx & 7)) & 1) != 0;
+                    pixels[out + x] = on ? ON_COLOR : OFF_COLOR;
+                }
+            }
+            dirty = false;
+        }
+
+        /**
+         * Draws the border around the tile, the image lock must be held
+         */
+        void drawBorder(int color){
+            for(int y = top - BORDER; y < top + TILE_HEIGHT + BORDER; y++){
+                int out = y * width + left - BORDER;
+                boolean edge = y < top || y >= top + TILE_HEIGHT;
+                for(int x = 0; x < TILE_WIDTH + BORDER * 2; x++)
+                    if(edge || x < BORDER || x >= TILE_WIDTH + BORDER)
+                        pixels[out + x] = color;
+            }
+        }
+    }
+
+    /**
+     * Forks every tile and waits for them
+     */
+    private class RunAll extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected void compute(){
+            for(int i = 0; i < tiles.length; i++)
+                tiles[i].reinitialize();
+            invokeAll(tiles);
+        }
+    }
+
+    /**
+     * @param cpus Machines to show, with their ROMs loaded
+     * @param columns Tiles per row
+     * @param pool Pool to run the machines on
+     */
+    public GridWindow(CPU[] cpus, int columns, ForkJoinPool pool){
+        this.columns = columns;
+        this.pool = pool;
+        rows = (cpus.length + columns - 1) / columns;
+        width = columns * (TILE_WIDTH + BORDER * 2);
+        height = rows * (TILE_HEIGHT + BORDER * 2);
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] = GAP_COLOR;
+        tiles = new Tile[cpus.length];
+        for(int i = 0; i < cpus.length; i++){
+            tiles[i] = new Tile(cpus[i], i);
+            cpus[i].setSoundEnabled(false);//Until the tile is focused
+            cpus[i].setDrawFlag(true);
+        }
+
+        keyListener = new KeyListenerClass(cpus[0]);
+        focus(0);
+        addMouseListener(new MouseAdapter(){
+            public void mousePressed(MouseEvent e){
+                int column = e.getX() / (TILE_WIDTH + BORDER * 2);
+                int tile = e.getY() / (TILE_HEIGHT + BORDER * 2) * GridWindow.this.columns + column;
+                if(column < GridWindow.this.columns && tile < tiles.length)
+                    focus(tile);
+            }
+        });
+        setPreferredSize(new Dimension(width, height));
+        frame.setTitle("Chip 8 Emulator - " + cpus.length + " machines");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.add(this);
+        frame.addKeyListener(keyListener);
+        frame.pack();
+        frame.setVisible(true);
+        frameDeadline = System.nanoTime();
+    }
+
+    /**
+     * Sends the keyboard to a tile, keys held on the last one are released
+     *
+     * @param tile Index of the tile
+     */
+    public void focus(int tile){
+        ROMDatabase.Entry info = tiles[tile].cpu.getROMInfo();
+        keyListener.setKeyMap(info == null ? null : info.getKeyMap());
+        keyListener.setCPU(tiles[tile].cpu);
+        focus = tile;
+    }
+
+    /**
+     * Runs one frame of every machine and repaints the tiles that changed,
+     * then sleeps until the frame is due. Called by the render thread only.
+     */
+    public void renderFrame(){
+        int focused = focus;
+        if(focused != shownFocus){
+            //The beep flag is only touched between cycles, here
+            if(shownFocus >= 0)
+                tiles[shownFocus].cpu.setSoundEnabled(false);
+            tiles[focused].cpu.setSoundEnabled(true);
+        }
+
+        root.reinitialize();
+        pool.invoke(root);
+
+        synchronized(image){
+            if(focused != shownFocus){
+                if(shownFocus >= 0){
+                    tiles[shownFocus].drawBorder(GAP_COLOR);
+                    repaintTile(tiles[shownFocus]);
+                }
+                tiles[focused].drawBorder(FOCUS_COLOR);
+                repaintTile(tiles[focused]);
+                shownFocus = focused;
+            }
+            for(Tile tile : tiles)
+                if(tile.dirty && tile.shownWidth != 0){
+                    tile.draw();
+                    repaintTile(tile);
+                }
+        }
+
+        long now = System.nanoTime();
+        frameDeadline += Window.FRAME_NANOS;
+        if(frameDeadline - now > 0)
+            LockSupport.parkNanos(frameDeadline - now);
+        else
+            frameDeadline = now;//A late frame is not caught up on
+    }
+
+    private void repaintTile(Tile tile){
+        repaint(tile.left - BORDER, tile.top - BORDER, TILE_WIDTH + BORDER * 2, TILE_HEIGHT + BORDER * 2);
+    }
+
+    public void paintComponent(Graphics g){
+        super.paintComponent(g);
+        synchronized(image){
+            g.drawImage(image, 0, 0, this);
+        }
+    }
+
+    public static void main(String[] args){
+        ArrayList<String> roms = new ArrayList<String>();
+        int copies = 1, columns = 0;
+        QuirkProfile profile = null;
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("-copies") && i + 1 < args.length)
+                copies = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-columns") && i + 1 < args.length)
+                columns = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-quirks") && i + 1 < args.length){
+                profile = QuirkProfile.forId(args[++i]);
+                if(profile == null){
+                    System.out.println("Unknown quirk profile " + args[i]);
+                    return;
+                }
+            }
+            else
+                roms.add(args[i]);
+        }
+        if(roms.isEmpty() || copies < 1){
+            System.out.println("Usage: java GridWindow <rom file>... [-copies <n>] [-columns <n>] [-quirks <profile>]");
+            return;
+        }
+
+        CPU[] cpus = new CPU[roms.size() * copies];
+        for(int i = 0; i < cpus.length; i++){
+            cpus[i] = new Chip8();
+            cpus[i].initState();
+            if(profile != null)
+                cpus[i].setQuirkProfile(profile);
+            cpus[i].loadROM(roms.get(i / copies));
+        }
+        if(columns < 1)
+            columns = (int)Math.ceil(Math.sqrt(cpus.length));
+        GridWindow grid = new GridWindow(cpus, Math.min(columns, cpus.length), new ForkJoinPool());
+        while(true)
+            grid.renderFrame();
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * A decoded Chip8 instruction with its operands already extracted
+ * Instances are immutable and shared by every Chip8, see InstructionTable
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public abstract class Instruction {
+    /**
+     * Executes the instruction
+     *
+     * @param cpu The Chip8 running the instruction
+     * @param s The state of cpu
+     * @return Number of instructions retired, 0 if the CPU is waiting
+     */
+    public abstract int execute(Chip8 cpu, State s);
+
+    /**
+     * @return Most instructions one execute may retire, more than 1 for fused instructions
+     */
+    public int maxRetired(){
+        return 1;
+    }
+}
@@ -0,0 +1,821 @@
+/**
+ * Maps every 16 bit opcode to a specialized Instruction
+ * The table is built once, so decoding an opcode is a single array load
+ * and each handler only does the work of its own instruction.
+ * Follows the Chip8 processor instructions at http://en.wikipedia.org/wiki/CHIP-8
+ * The SUPER-CHIP and XO-CHIP extensions are included, they only use opcodes
+ * that are invalid in Chip8, except 00FE which returned and DXY0 which drew nothing.
+ * 00C0 cleared the screen, it is now 00CN scrolling down 0 rows.
+ * Skips pass over F000 NNNN whole in every profile, see QuirkProfile.
+ * Each QuirkProfile gets a table of its own, so the quirks are decided when the
+ * table is built and never checked while running.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class InstructionTable {
+    public static final int SIZE = 0x10000;
+
+    //Table of the standard Chip8 instruction set
+    public static final Instruction[] TABLE = build();
+
+    /**
+     * Builds a table with one Instruction per opcode
+     * @return The table
+     */
+    public static Instruction[] build(){
+        return build(QuirkProfile.DEFAULT);
+    }
+
+    /**
+     * Builds a table with one Instruction per opcode, behaving as profile
+     * @param profile Quirks of the table
+     * @return The table
+     */
+    public static Instruction[] build(QuirkProfile profile){
+        Instruction[] table = new Instruction[SIZE];
+        for(int opcode = 0; opcode < SIZE; opcode++)
+            table[opcode] = decode(opcode, profile);
+        return table;
+    }
+
+    /**
+     * Decodes a single opcode
+     * @param opcode The opcode
+     * @return The Instruction running opcode
+     */
+    public static Instruction decode(int opcode){
+        return decode(opcode, QuirkProfile.DEFAULT);
+    }
+
+    /**
+     * Decodes a single opcode, behaving as profile
+     * @param opcode The opcode
+     * @param profile Quirks of the Instruction
+     * @return The Instruction running opcode
+     */
+    public static Instruction decode(int opcode, QuirkProfile profile){
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        int nn = opcode & 0x00FF;
+        int nnn = opcode & 0x0FFF;
+
+        switch(opcode & 0xF000)
+        {
+            case 0x0000:
+                if((opcode & 0xFFF0) == 0x00C0)
+                    return new ScrollDown(opcode & 0x000F);
+                if((opcode & 0xFFF0) == 0x00D0)
+                    return new ScrollUp(opcode & 0x000F);
+                switch(opcode)
+                {
+                    case 0x00FB: return new ScrollRight();
+                    case 0x00FC: return new ScrollLeft();
+                    case 0x00FD: return new Exit();
+                    case 0x00FE: return new LowRes();
+                    case 0x00FF: return new HighRes();
+                }
+                switch(opcode & 0x000F)
+                {
+                    case 0x0000: return new ClearScreen();// 0x00E0
+                    case 0x000E: return new Return();// 0x00EE
+                }
+            break;
+            case 0x1000: return new Jump(nnn);
+            case 0x2000: return new Call(nnn);
+            case 0x3000: return new SkipIfEqual(x, nn);
+            case 0x4000: return new SkipIfNotEqual(x, nn);
+            case 0x5000:
+                switch(opcode & 0x000F)
+                {
+                    case 0x0002: return new SaveRange(x, y);
+                    case 0x0003: return new LoadRange(x, y);
+                }
+                return new SkipIfRegistersEqual(x, y);
+            case 0x6000: return new Set(x, nn);
+            case 0x7000: return new Add(x, nn);
+            case 0x8000:
+                switch(opcode & 0x000F)
+                {
+                    case 0x0000: return new Copy(x, y);
+                    case 0x0001: return resetFlag(new Or(x, y), profile);
+                    case 0x0002: return resetFlag(new And(x, y), profile);
+                    case 0x0003: return resetFlag(new Xor(x, y), profile);
+                    case 0x0004: return new AddRegisters(x, y);
+                    case 0x0005: return new SubtractRegisters(x, y);
+                    case 0x0006: return new ShiftRight(x, profile.shiftsVY() ? y : x);
+                    case 0x0007: return new ReverseSubtract(x, y);
+                    case 0x000E: return new ShiftLeft(x, profile.shiftsVY() ? y : x);
+                }
+            break;
+            case 0x9000: return new SkipIfRegistersNotEqual(x, y);
+            case 0xA000: return new SetIndex(nnn);
+            case 0xB000: return new JumpOffset(nnn, profile.jumpsWithVX() ? x : 0);
+            case 0xC000: return new Random(x, nn);
+            case 0xD000:
+                switch(profile.getSprites())
+                {
+                    case QuirkProfile.WRAP_START: return new ClippedDraw(x, y, opcode & 0x000F);
+                    case QuirkProfile.WRAP: return new WrappedDraw(x, y, opcode & 0x000F);
+                }
+                return new Draw(x, y, opcode & 0x000F);
+            case 0xE000:
+                switch(nn)
+                {
+                    case 0x009E: return new SkipIfKey(x);
+                    case 0x00A1: return new SkipIfNotKey(x);
+                }
+            break;
+            case 0xF000:
+                if(opcode == 0xF000)
+                    return new LongIndex();
+                if(opcode == 0xF002)
+                    return new AudioPattern();
+                switch(nn)
+                {
+                    case 0x0001: return new Plane(x);
+                    case 0x0007: return new GetDelay(x);
+                    case 0x000A: return new WaitKey(x);
+                    case 0x0015: return new SetDelay(x);
+                    case 0x0018: return new SetSound(x);
+                    case 0x001E: return new AddIndex(x);
+                    case 0x0029: return new Font(x);
+                    case 0x0030: return new BigFont(x);
+                    case 0x0033: return new BCD(x);
+                    case 0x003A: return new Pitch(x);
+                    case 0x0055: return new Store(x, profile.indexIncrement(x));
+                    case 0x0065: return new Load(x, profile.indexIncrement(x));
+                    case 0x0075: return new SaveFlags(x);
+                    case 0x0085: return new LoadFlags(x);
+                }
+            break;
+        }
+        return new Invalid(opcode);
+    }
+
+    private static Instruction resetFlag(Instruction operation, QuirkProfile profile){
+        return profile.resetsVF() ? new ResetFlag(operation) : operation;
+    }
+
+    // 0x00E0: Clears the screen, only the selected planes on XO-CHIP
+    static class ClearScreen extends Instruction {
+        public int execute(Chip8 cpu, State s){
+            s.clearPlanes();
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x00EE: Returns from subroutine
+    static class Return extends Instruction {
+        public int execute(Chip8 cpu, State s){
+            // Put the stored return address from the stack back into the program counter
+            s.setProgramCounter(s.popFromStack());
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x00CN: Scrolls the screen down N rows (SUPER-CHIP)
+    static class ScrollDown extends Instruction {
+        final int n;
+        ScrollDown(int n){ this.n = n; }
+        public int execute(Chip8 cpu, State s){
+            s.scrollDown(n);
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x00DN: Scrolls the screen up N rows (XO-CHIP)
+    static class ScrollUp extends Instruction {
+        final int n;
+        ScrollUp(int n){ this.n = n; }
+        public int execute(Chip8 cpu, State s){
+            s.scrollUp(n);
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x00FB: Scrolls the screen right 4 pixels (SUPER-CHIP)
+    static class ScrollRight extends Instruction {
+        public int execute(Chip8 cpu, State s){
+            s.scrollSideways(4);
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x00FC: Scrolls the screen left 4 pixels (SUPER-CHIP)
+    static class ScrollLeft extends Instruction {
+        public int execute(Chip8 cpu, State s){
+            s.scrollSideways(-4);
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x00FD: Exits the interpreter (SUPER-CHIP), the program counter stays here
+    static class Exit extends Instruction {
+        public int execute(Chip8 cpu, State s){
+            return 0;
+        }
+    }
+
+    // 0x00FE: Switches to the 64x32 mode and clears the screen (SUPER-CHIP)
+    static class LowRes extends Instruction {
+        public int execute(Chip8 cpu, State s){
+            s.setHires(false);
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x00FF: Switches to the 128x64 mode and clears the screen (SUPER-CHIP)
+    static class HighRes extends Instruction {
+        public int execute(Chip8 cpu, State s){
+            s.setHires(true);
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x1NNN: Jumps to address NNN
+    static class Jump extends Instruction {
+        final int nnn;
+        Jump(int nnn){ this.nnn = nnn; }
+        public int execute(Chip8 cpu, State s){
+            s.setProgramCounter(nnn);
+            return 1;
+        }
+    }
+
+    // 0x2NNN: Calls subroutine at NNN
+    static class Call extends Instruction {
+        final int nnn;
+        Call(int nnn){ this.nnn = nnn; }
+        public int execute(Chip8 cpu, State s){
+            s.addToStack(s.getProgramCounter());// Store current address in stack
+            s.setProgramCounter(nnn);
+            return 1;
+        }
+    }
+
+    // 0x3XNN: Skips the next instruction if VX equals NN
+    static class SkipIfEqual extends Instruction {
+        final int x, nn;
+        SkipIfEqual(int x, int nn){ this.x = x; this.nn = nn; }
+        public int execute(Chip8 cpu, State s){
+            s.incProgramCounter(s.getV(x) == nn ? s.skipLength() : 2);
+            return 1;
+        }
+    }
+
+    // 0x4XNN: Skips the next instruction if VX doesn't equal NN
+    static class SkipIfNotEqual extends Instruction {
+        final int x, nn;
+        SkipIfNotEqual(int x, int nn){ this.x = x; this.nn = nn; }
+        public int execute(Chip8 cpu, State s){
+            s.incProgramCounter(s.getV(x) != nn ? s.skipLength() : 2);
+            return 1;
+        }
+    }
+
+    // 0x5XY0: Skips the next instruction if VX equals VY
+    static class SkipIfRegistersEqual extends Instruction {
+        final int x, y;
+        SkipIfRegistersEqual(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            s.incProgramCounter(s.getV(x) == s.getV(y) ? s.skipLength() : 2);
+            return 1;
+        }
+    }
+
+    // 0x5XY2: Stores VX to VY in memory starting at address I, in reverse if X > Y. I is not changed (XO-CHIP)
+    static class SaveRange extends Instruction {
+        final int x, y;
+        SaveRange(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            int step = x <= y ? 1 : -1;
+            for(int i = 0; i <= Math.abs(y - x); i++)
+                s.setMemAddr(s.getIndexReg() + i, s.getV(x + i * step));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x5XY3: Fills VX to VY from memory starting at address I, in reverse if X > Y. I is not changed (XO-CHIP)
+    static class LoadRange extends Instruction {
+        final int x, y;
+        LoadRange(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            int step = x <= y ? 1 : -1;
+            for(int i = 0; i <= Math.abs(y - x); i++)
+                s.setV(x + i * step, s.getMemAddr(s.getIndexReg() + i));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x6XNN: Sets VX to NN
+    static class Set extends Instruction {
+        final int x, nn;
+        Set(int x, int nn){ this.x = x; this.nn = nn; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(x, nn);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x7XNN: Adds NN to VX
+    static class Add extends Instruction {
+        final int x, nn;
+        Add(int x, int nn){ this.x = x; this.nn = nn; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(x, (s.getV(x) + nn) & 0xFF);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x8XY0: Sets VX to the value of VY
+    static class Copy extends Instruction {
+        final int x, y;
+        Copy(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(x, s.getV(y));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x8XY1: Sets VX to "VX OR VY"
+    static class Or extends Instruction {
+        final int x, y;
+        Or(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(x, s.getV(x) | s.getV(y));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x8XY2: Sets VX to "VX AND VY"
+    static class And extends Instruction {
+        final int x, y;
+        And(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(x, s.getV(x) & s.getV(y));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x8XY3: Sets VX to "VX XOR VY"
+    static class Xor extends Instruction {
+        final int x, y;
+        Xor(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(x, s.getV(x) ^ s.getV(y));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x8XY1, 0x8XY2, 0x8XY3 on the COSMAC VIP: VF is set to 0 after the operation
+    static class ResetFlag extends Instruction {
+        final Instruction operation;
+        ResetFlag(Instruction operation){ this.operation = operation; }
+        public int execute(Chip8 cpu, State s){
+            operation.execute(cpu, s);
+            s.setV(0xF, 0);
+            return 1;
+        }
+    }
+
+    // 0x8XY4: Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't
+    static class AddRegisters extends Instruction {
+        final int x, y;
+        AddRegisters(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(0xF, s.getV(y) > (0xFF - s.getV(x)) ? 1 : 0);
+            s.setV(x, s.getV(x) + s.getV(y));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x8XY5: VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't
+    static class SubtractRegisters extends Instruction {
+        final int x, y;
+        SubtractRegisters(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(0xF, s.getV(y) > s.getV(x) ? 0 : 1);
+            s.setV(x, s.getV(x) - s.getV(y));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x8XY6: Shifts VX right by one. VF is set to the value of the least significant bit of VX before the shift
+    // The COSMAC VIP shifts VY into VX instead, source is the register shifted
+    static class ShiftRight extends Instruction {
+        final int x, source;
+        ShiftRight(int x, int source){ this.x = x; this.source = source; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(0xF, s.getV(source) & 0x1);
+            s.setV(x, s.getV(source) >> 1);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x8XY7: Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't
+    static class ReverseSubtract extends Instruction {
+        final int x, y;
+        ReverseSubtract(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(0xF, s.getV(x) > s.getV(y) ? 0 : 1);
+            s.setV(x, s.getV(y) - s.getV(x));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x8XYE: Shifts VX left by one. VF is set to the value of the most significant bit of VX before the shift
+    // The COSMAC VIP shifts VY into VX instead, source is the register shifted
+    static class ShiftLeft extends Instruction {
+        final int x, source;
+        ShiftLeft(int x, int source){ this.x = x; this.source = source; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(0xF, s.getV(source) >> 7);
+            s.setV(x, s.getV(source) << 1);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // 0x9XY0: Skips the next instruction if VX doesn't equal VY
+    static class SkipIfRegistersNotEqual extends Instruction {
+        final int x, y;
+        SkipIfRegistersNotEqual(int x, int y){ this.x = x; this.y = y; }
+        public int execute(Chip8 cpu, State s){
+            s.incProgramCounter(s.getV(x) != s.getV(y) ? s.skipLength() : 2);
+            return 1;
+        }
+    }
+
+    // ANNN: Sets I to the address NNN
+    static class SetIndex extends Instruction {
+        final int nnn;
+        SetIndex(int nnn){ this.nnn = nnn; }
+        public int execute(Chip8 cpu, State s){
+            s.setIndexReg(nnn);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // BNNN: Jumps to the address NNN plus V0
+    // CHIP-48 and SUPER-CHIP read it as BXNN, jumping to XNN plus VX
+    static class JumpOffset extends Instruction {
+        final int nnn, register;
+        JumpOffset(int nnn, int register){ this.nnn = nnn; this.register = register; }
+        public int execute(Chip8 cpu, State s){
+            s.setProgramCounter(nnn + s.getV(register));
+            return 1;
+        }
+    }
+
+    // CXNN: Sets VX to a random number and NN
+    static class Random extends Instruction {
+        final int x, nn;
+        Random(int x, int nn){ this.x = x; this.nn = nn; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(x, s.nextRandom() & nn);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // DXYN: Draws a sprite at coordinate (VX, VY) that has a width of 8 pixels and a height of N pixels.
+    // Each row of 8 pixels is read as bit-coded starting from memory location I;
+    // I value doesn't change after the execution of this instruction.
+    // VF is set to 1 if any screen pixels are flipped from set to unset when the sprite is drawn,
+    // and to 0 if that doesn't happen
+    // DXY0 draws a 16x16 sprite of two bytes per row (SUPER-CHIP). Each selected plane
+    // gets its own sprite, the sprite of the next plane follows in memory (XO-CHIP)
+    static class Draw extends Instruction {
+        final int x, y, height;
+        Draw(int x, int y, int height){ this.x = x; this.y = y; this.height = height; }
+        public int execute(Chip8 cpu, State s){
+            int px = s.getV(x);
+            int py = s.getV(y);
+            if(px < s.getWidth())
+                draw(s, px, py, false);
+            else
+                s.setV(0xF, 0);
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+
+        /**
+         * Draws the sprites at I to the selected planes and sets VF
+         * @param px X of the leftmost pixel, less than getWidth()
+         * @param py Y of the top row
+         * @param wrap True to wrap pixels past an edge around, else they are clipped
+         */
+        final void draw(State s, int px, int py, boolean wrap){
+            int rows = height == 0 ? 16 : height;
+            int address = s.getIndexReg();
+            boolean collision = false;
+            for(int plane = 0; plane < CPU.PLANES; plane++)
+            {
+                if((s.getPlaneMask() & 1 << plane) == 0)
+                    continue;
+                for(int yline = 0; yline < rows; yline++)
+                {
+                    long pixels;//Row of the sprite, bit 63 is its leftmost pixel
+                    if(height == 0){
+                        pixels = (long)((s.getMemAddr(address) & 0xFF) << 8 | (s.getMemAddr(address + 1) & 0xFF)) << 48;
+                        address += 2;
+                    }
+                    else
+                        pixels = (long)(s.getMemAddr(address++) & 0xFF) << 56;
+                    if(wrap)
+                        collision |= s.drawRowWrapped(plane, px, (py + yline) % s.getHeight(), pixels);
+                    else if(py + yline < s.getHeight())
+                        collision |= s.drawRow(plane, px, py + yline, pixels);
+                }
+            }
+            s.setV(0xF, collision ? 1 : 0);
+        }
+    }
+
+    // DXYN as on the COSMAC VIP, CHIP-48 and SUPER-CHIP: the sprite starts at (VX, VY)
+    // wrapped onto the screen, pixels past an edge are clipped
+    static class ClippedDraw extends Draw {
+        ClippedDraw(int x, int y, int height){ super(x, y, height); }
+        public int execute(Chip8 cpu, State s){
+            draw(s, s.getV(x) % s.getWidth(), s.getV(y) % s.getHeight(), false);
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // DXYN as on XO-CHIP: pixels past an edge wrap around to the other side
+    static class WrappedDraw extends Draw {
+        WrappedDraw(int x, int y, int height){ super(x, y, height); }
+        public int execute(Chip8 cpu, State s){
+            draw(s, s.getV(x) % s.getWidth(), s.getV(y) % s.getHeight(), true);
+            s.setDrawFlag(true);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // EX9E: Skips the next instruction if the key stored in VX is pressed
+    static class SkipIfKey extends Instruction {
+        final int x;
+        SkipIfKey(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            cpu.observeKey(s.getV(x));
+            s.incProgramCounter(s.getKey(s.getV(x)) != 0 ? s.skipLength() : 2);
+            return 1;
+        }
+    }
+
+    // EXA1: Skips the next instruction if the key stored in VX isn't pressed
+    static class SkipIfNotKey extends Instruction {
+        final int x;
+        SkipIfNotKey(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            cpu.observeKey(s.getV(x));
+            s.incProgramCounter(s.getKey(s.getV(x)) == 0 ? s.skipLength() : 2);
+            return 1;
+        }
+    }
+
+    // FX07: Sets VX to the value of the delay timer
+    static class GetDelay extends Instruction {
+        final int x;
+        GetDelay(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(x, s.getDelayTimer());
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX0A: A key press is awaited, and then stored in VX
+    static class WaitKey extends Instruction {
+        final int x;
+        WaitKey(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            boolean keyPress = false;
+            for(int i = 0; i < 16; ++i)
+            {
+                cpu.observeKey(i);
+                if(s.getKey(i) != 0)
+                {
+                    s.setV(x, i);
+                    keyPress = true;
+                }
+            }
+            // If we didn't received a keypress, skip this cycle and try again.
+            if(!keyPress)
+                return 0;
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX15: Sets the delay timer to VX
+    static class SetDelay extends Instruction {
+        final int x;
+        SetDelay(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            s.setDelayTimer(s.getV(x));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX18: Sets the sound timer to VX
+    static class SetSound extends Instruction {
+        final int x;
+        SetSound(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            s.setSoundTimer(s.getV(x));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX1E: Adds VX to I. VF is set to 1 when range overflow (I+VX>0xFFF), and 0 when there isn't
+    static class AddIndex extends Instruction {
+        final int x;
+        AddIndex(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            s.setV(0xF, s.getIndexReg() + s.getV(x) > 0xFFF ? 1 : 0);
+            s.setIndexReg(s.getIndexReg() + s.getV(x));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX29: Sets I to the location of the sprite for the character in VX. Characters 0-F (in hexadecimal) are represented by a 4x5 font
+    static class Font extends Instruction {
+        final int x;
+        Font(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            s.setIndexReg(s.getV(x) * 0x5);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX30: Sets I to the location of the 8x10 sprite for the character in VX (SUPER-CHIP)
+    static class BigFont extends Instruction {
+        final int x;
+        BigFont(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            s.setIndexReg(CPU.BIG_FONT_OFFSET + (s.getV(x) & 0xF) * 10);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX33: Stores the Binary-coded decimal representation of VX at the addresses I, I plus 1, and I plus 2
+    static class BCD extends Instruction {
+        final int x;
+        BCD(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            int vx = s.getV(x);
+            s.setMemAddr(s.getIndexReg(), vx / 100);
+            s.setMemAddr(s.getIndexReg() + 1, (vx / 10) % 10);
+            s.setMemAddr(s.getIndexReg() + 2, vx % 10);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX55: Stores V0 to VX in memory starting at address I
+    // On the original interpreter, when the operation is done, I = I + X + 1.
+    // CHIP-48 adds X and SUPER-CHIP leaves I, increment is what is added
+    static class Store extends Instruction {
+        final int x, increment;
+        Store(int x, int increment){ this.x = x; this.increment = increment; }
+        public int execute(Chip8 cpu, State s){
+            for(int i = 0; i <= x; ++i)
+                s.setMemAddr(s.getIndexReg() + i, s.getV(i));
+            s.setIndexReg(s.getIndexReg() + increment);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX65: Fills V0 to VX with values from memory starting at address I
+    // I moves as with FX55
+    static class Load extends Instruction {
+        final int x, increment;
+        Load(int x, int increment){ this.x = x; this.increment = increment; }
+        public int execute(Chip8 cpu, State s){
+            for(int i = 0; i <= x; ++i)
+                s.setV(i, s.getMemAddr(s.getIndexReg() + i));
+            s.setIndexReg(s.getIndexReg() + increment);
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX75: Stores V0 to VX in the RPL user flags (SUPER-CHIP)
+    static class SaveFlags extends Instruction {
+        final int x;
+        SaveFlags(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            for(int i = 0; i <= x; ++i)
+                s.setFlag(i, s.getV(i));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX85: Fills V0 to VX from the RPL user flags (SUPER-CHIP)
+    static class LoadFlags extends Instruction {
+        final int x;
+        LoadFlags(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            for(int i = 0; i <= x; ++i)
+                s.setV(i, s.getFlag(i));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // F000 NNNN: Sets I to the 16 bit address NNNN, a 4 byte instruction (XO-CHIP)
+    // The first use grows memory to the XO-CHIP address space
+    static class LongIndex extends Instruction {
+        public int execute(Chip8 cpu, State s){
+            if(s.getMemorySize() < CPU.XO_MEMORY_SIZE)
+                s.setMemorySize(CPU.XO_MEMORY_SIZE);
+            int pc = s.getProgramCounter();
+            s.setIndexReg(s.getMemAddr(pc + 2) << 8 | s.getMemAddr(pc + 3));
+            s.incProgramCounter(4);
+            return 1;
+        }
+    }
+
+    // FN01: Selects the planes drawn to, cleared and scrolled, bit n is plane n (XO-CHIP)
+    static class Plane extends Instruction {
+        final int n;
+        Plane(int n){ this.n = n; }
+        public int execute(Chip8 cpu, State s){
+            s.setPlaneMask(n & ((1 << CPU.PLANES) - 1));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // F002: Loads the 16 byte audio pattern at I (XO-CHIP)
+    static class AudioPattern extends Instruction {
+        public int execute(Chip8 cpu, State s){
+            for(int i = 0; i < 16; ++i)
+                s.setAudioPattern(i, s.getMemAddr(s.getIndexReg() + i));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // FX3A: Sets the pitch of the audio pattern to VX (XO-CHIP)
+    static class Pitch extends Instruction {
+        final int x;
+        Pitch(int x){ this.x = x; }
+        public int execute(Chip8 cpu, State s){
+            s.setPitch(s.getV(x));
+            s.incProgramCounter(2);
+            return 1;
+        }
+    }
+
+    // Any opcode that is not a Chip8 instruction, the program counter is not moved
+    static class Invalid extends Instruction {
+        final int opcode;
+        Invalid(int opcode){ this.opcode = opcode; }
+        public int execute(Chip8 cpu, State s){
+            cpu.printError(opcode);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.PrintStream;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets
+ * Values below 256 get a bucket each. Above that every power of two is split
+ * into 128 buckets, so a recorded value is off by less than 1% at any scale,
+ * as in an HDR histogram. Recording is an array increment and never allocates.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 128;
+    private static final int BUCKETS = 56 * SUB_BUCKETS + 2 * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count, sum, max;
+
+    /**
+     * @param nanos Latency to record, negative values are counted as 0
+     */
+    public synchronized void record(long nanos){
+        if(nanos < 0)
+            nanos = 0;
+        counts[bucket(nanos)]++;
+        count++;
+        sum += nanos;
+        max = Math.max(max, nanos);
+    }
+
+    private static int bucket(long value){
+        if(value < 2 * SUB_BUCKETS)
+            return (int)value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - 8;//value >>> shift is 128 to 255
+        return shift * SUB_BUCKETS + (int)(value >>> shift);
+    }
+
+    /**
+     * @return Smallest value that falls in bucket
+     */
+    private static long lowest(int bucket){
+        if(bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long)(bucket - shift * SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @return Number of latencies recorded
+     */
+    public synchronized long getCount(){
+        return count;
+    }
+
+    /**
+     * @return Largest latency recorded
+     */
+    public synchronized long getMax(){
+        return max;
+    }
+
+    /**
+     * @return Mean latency, 0 if none were recorded
+     */
+    public synchronized long getMean(){
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @param percentile Percentile from 0 to 100
+     * @return Latency that percentile of the recorded latencies are at or below, within 1%
+     */
+    public synchronized long getPercentile(double percentile){
+        long rank = (long)Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts[i];
+            if(seen >= rank && seen > 0)
+                return Math.min(lowest(i), max);
+        }
+        return 0;
+    }
+
+    /**
+     * Clears every recorded latency
+     */
+    public synchronized void reset(){
+        for(int i = 0; i < BUCKETS; i++)
+            counts[i] = 0;
+        count = sum = max = 0;
+    }
+
+    /**
+     * Prints the count and the usual percentiles in milliseconds
+     *
+     * @param name Name printed before the numbers
+     * @param out Stream to print to
+     */
+    public synchronized void print(String name, PrintStream out){
+        out.println(String.format("%-20s n=%-8d mean=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f ms",
+                name, count, getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(90) / 1e6,
+                getPercentile(99) / 1e6, getPercentile(99.9) / 1e6, max / 1e6));
+    }
+}
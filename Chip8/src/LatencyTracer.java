@@ -0,0 +1,118 @@
+import java.io.PrintStream;
+
+/**
+ * Measures the latency from a key event to the frame showing its effect
+ * Each key change is stamped with System.nanoTime when it reaches the CPU,
+ * then followed through three points:
+ *
+ * observed  - the program first reads the key with EX9E, EXA1 or FX0A
+ * published - the next changed frame is drawn by Window#display
+ * presented - that frame is painted by Window#paintComponent
+ *
+ * The latency from the key to each point goes into its own histogram.
+ * A key that changes again before the program reads it is counted as missed.
+ * Events waiting for the next point are kept in fixed arrays, so tracing
+ * does not allocate; events beyond MAX_PENDING are dropped and counted.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class LatencyTracer {
+    public static final int MAX_PENDING = 64;
+
+    private final LatencyHistogram observed = new LatencyHistogram();
+    private final LatencyHistogram published = new LatencyHistogram();
+    private final LatencyHistogram presented = new LatencyHistogram();
+
+    private final long[] keyStamps = new long[16];//Unobserved event per key, 0 if none
+    private final long[] observedStamps = new long[MAX_PENDING];//Waiting for a frame
+    private final long[] publishedStamps = new long[MAX_PENDING];//Waiting to be painted
+    private int observedCount, publishedCount;
+    private long missed, dropped;
+
+    /**
+     * Stamps a key change, called by the CPU on the thread delivering input
+     *
+     * @param key The key that changed
+     */
+    public synchronized void keyChanged(int key){
+        if(keyStamps[key] != 0)
+            missed++;//The program never saw the previous change
+        keyStamps[key] = System.nanoTime();
+    }
+
+    /**
+     * Called by the CPU when the program reads a key
+     *
+     * @param key The key read
+     */
+    public synchronized void keyObserved(int key){
+        long stamp = keyStamps[key];
+        if(stamp == 0)
+            return;
+        keyStamps[key] = 0;
+        observed.record(System.nanoTime() - stamp);
+        if(observedCount == MAX_PENDING)
+            dropped++;
+        else
+            observedStamps[observedCount++] = stamp;
+    }
+
+    /**
+     * Called when a changed frame has been drawn and is ready to be painted
+     */
+    public synchronized void framePublished(){
+        long now = System.nanoTime();
+        for(int i = 0; i < observedCount; i++){
+            published.record(now - observedStamps[i]);
+            if(publishedCount == MAX_PENDING)
+                dropped++;
+            else
+                publishedStamps[publishedCount++] = observedStamps[i];
+        }
+        observedCount = 0;
+    }
+
+    /**
+     * Called when a frame has been painted on screen
+     */
+    public synchronized void framePresented(){
+        long now = System.nanoTime();
+        for(int i = 0; i < publishedCount; i++)
+            presented.record(now - publishedStamps[i]);
+        publishedCount = 0;
+    }
+
+    /**
+     * @return Latencies from key to the program reading it
+     */
+    public LatencyHistogram getObserved(){
+        return observed;
+    }
+
+    /**
+     * @return Latencies from key to the frame being drawn
+     */
+    public LatencyHistogram getPublished(){
+        return published;
+    }
+
+    /**
+     * @return Latencies from key to the frame being painted
+     */
+    public LatencyHistogram getPresented(){
+        return presented;
+    }
+
+    /**
+     * Prints the three histograms and the missed and dropped events
+     *
+     * @param out Stream to print to
+     */
+    public synchronized void report(PrintStream out){
+        observed.print("key to observed", out);
+        published.print("key to published", out);
+        presented.print("key to presented", out);
+        out.println("missed " + missed + " key changes, dropped " + dropped + " events");
+    }
+}
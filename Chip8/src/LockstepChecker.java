@@ -0,0 +1,339 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs two CPU implementations side by side and reports where they first differ
+ * Both run the same ROM with the same seed and the same key input, changed at
+ * every check. Every -every cycles the engines are brought to the same cycle
+ * count and compared by a hash of their registers, timers, stack, memory and
+ * screen. Both are forked at every check that matches. On a mismatch the forks
+ * are run again one cycle at a time to the first cycle after which they differ,
+ * and the instructions leading up to it are printed with a full diff.
+ *
+ * Engines:
+ * stepped     - Chip8 running every instruction from the table on its own, as when instrumented
+ * interpreter - Chip8 with its decode cache, superinstructions and idle loops
+ * aot         - interpreter running ROMs compiled ahead of time, cached in the -aot directory
+ *
+ * ROMs are checked in parallel, one per thread. -regressions adds the built in
+ * ROMs of REGRESSIONS, each of which once made two engines differ.
+ *
+ * Usage: java LockstepChecker [-engines <engine>,<engine>] [-cycles <n>] [-every <n>]
+ *            [-aot <cache directory>] [-quirks <profile>] [-threads <n>] [-regressions] <rom file or directory>...
+ * Exits with status 1 if any ROM diverges
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class LockstepChecker {
+    public static final long SEED = 0x5EED;
+    public static final int TRACE = 16;//Instructions printed before a divergence
+    public static final int DIFF_LIMIT = 16;//Memory and screen differences printed
+    private static final int ALIGN_TRIES = 64;
+    //Most cycles one call can retire: an idle loop of a whole page, run for all its passes
+    private static final long MAX_RETIRED = Superinstructions.IdleLoop.PASSES * State.PAGE_SIZE / 2;
+
+    //Built in ROMs checked by -regressions, named by REGRESSION_NAMES
+    private static final String[] REGRESSION_NAMES = { "store into the same compiled block" };
+    private static final int[][] REGRESSIONS = {
+        //FX55 at 0x206 rewrites the 6200 at 0x20A to 624D, further into the block compiled at 0x200
+        { 0xA2, 0x0A, 0x60, 0x62, 0x61, 0x4D, 0xF1, 0x55, 0x60, 0x00, 0x62, 0x00, 0x12, 0x0C },
+    };
+
+    private final String first, second, aotDirectory;
+    private final QuirkProfile profile;
+    private final long cycles, every;
+
+    /**
+     * @param first Engine compared against
+     * @param second Engine checked
+     * @param cycles Cycles to run each ROM for
+     * @param every Cycles between checks
+     * @param aotDirectory Compile cache of the aot engine
+     * @param profile Quirks both engines run with, or null for the ROM database's
+     */
+    public LockstepChecker(String first, String second, long cycles, long every, String aotDirectory, QuirkProfile profile){
+        this.first = first; this.second = second; this.cycles = cycles; this.every = every;
+        this.aotDirectory = aotDirectory; this.profile = profile;
+    }
+
+    /**
+     * Creates an engine and loads rom into it
+     *
+     * @param engine Name of the engine
+     * @param rom The ROM
+     * @return The engine
+     */
+    private CPU create(String engine, int[] rom){
+        CPU cpu = new Chip8();
+        cpu.initState();
+        cpu.setSoundEnabled(false);
+        if(profile != null)
+            cpu.setQuirkProfile(profile);
+        if(engine.equals("aot"))
+            cpu.setCompileCache(aotDirectory);
+        cpu.loadROM(rom);
+        cpu.setSeed(SEED);
+        configure(cpu, engine);
+        return cpu;
+    }
+
+    /**
+     * Sets what a fork of an engine does not keep
+     */
+    private static void configure(CPU cpu, String engine){
+        if(engine.equals("stepped"))
+            cpu.setMemoryHeatmap(new MemoryHeatmap());//Any instrument takes the one instruction path
+    }
+
+    /**
+     * Runs both engines on a ROM
+     *
+     * @param fileName The ROM file
+     * @return The report, which starts with "ok" if the engines never differed
+     */
+    public String check(String fileName){
+        return check(fileName, ApplicationLoader.getROMFromFile(fileName));
+    }
+
+    /**
+     * Runs both engines on a ROM
+     *
+     * @param name Name of the ROM in the report
+     * @param rom The ROM
+     * @return The report, which starts with "ok" if the engines never differed
+     */
+    public String check(String name, int[] rom){
+        CPU a = create(first, rom), b = create(second, rom);
+        CPU goodA = a.fork(), goodB = b.fork();
+        configure(goodA, first);
+        configure(goodB, second);
+        long checks = 0;
+        for(long target = every; target <= cycles; target += every){
+            if(!align(a, b, target))
+                continue;//Fused instructions never ended on the same cycle, check at the next target
+            checks++;
+            if(hash(a) != hash(b))
+                return name + ": " + first + " and " + second + " differ by cycle " + a.getCycleCount()
+                        + "\n" + findDivergence(goodA, goodB, a.getCycleCount());
+            pressKeys(a, checks);
+            pressKeys(b, checks);
+            goodA = a.fork();
+            goodB = b.fork();
+            configure(goodA, first);
+            configure(goodB, second);
+        }
+        return "ok " + name + ": " + a.getCycleCount() + " cycles, " + checks + " checks";
+    }
+
+    /**
+     * Runs both engines until they are at the same cycle count, at least target
+     * @return True if they got there within ALIGN_TRIES steps
+     */
+    private static boolean align(CPU a, CPU b, long target){
+        runTo(a, target);
+        runTo(b, a.getCycleCount());
+        for(int i = 0; i < ALIGN_TRIES && a.getCycleCount() != b.getCycleCount(); i++){
+            if(a.getCycleCount() < b.getCycleCount())
+                runTo(a, b.getCycleCount());
+            else
+                runTo(b, a.getCycleCount());
+        }
+        return a.getCycleCount() == b.getCycleCount();
+    }
+
+    private static void runTo(CPU cpu, long cycle){
+        while(cpu.getCycleCount() < cycle)
+            cpu.emulateCycle();
+    }
+
+    /**
+     * The input script: at check n, key n mod 16 is pressed or released
+     */
+    private static void pressKeys(CPU cpu, long check){
+        cpu.setKey((int)(check & 0xF), (int)(check >> 4) & 1);
+    }
+
+    /**
+     * Hashes everything the engines must agree on
+     */
+    private static long hash(CPU cpu){
+        long hash = cpu.getFrameHash();
+        hash = mix(hash, cpu.getProgramCounter());
+        hash = mix(hash, cpu.getIndexRegister());
+        hash = mix(hash, cpu.getDelayTimer());
+        hash = mix(hash, cpu.getSoundTimer());
+        hash = mix(hash, cpu.getWidth());
+        for(int i = 0; i < 16; i++)
+            hash = mix(hash, cpu.getRegister(i));
+        hash = mix(hash, cpu.getStackPointer());
+        for(int i = 0; i < cpu.getStackPointer(); i++)
+            hash = mix(hash, cpu.getStack(i));
+        for(int i = 0; i < cpu.getMemorySize(); i++)
+            hash = mix(hash, cpu.readMemory(i));
+        return hash;
+    }
+
+    private static long mix(long hash, int value){
+        return (hash ^ value) * 0x100000001B3L;
+    }
+
+    /**
+     * Runs the engines from states that matched, stepping the one behind, to the
+     * first cycle both reach after which they differ
+     *
+     * @param reached Cycle count both engines differed at
+     * @return The instructions the first engine ran up to there and the differences, or
+     * a note that the divergence did not happen again
+     */
+    private String findDivergence(CPU a, CPU b, long reached){
+        String[] trace = new String[TRACE];
+        long traced = 0;
+        //Fused instructions run past the cycle they were aimed at, so give up only
+        //well past where the engines were found to differ
+        long start = a.getCycleCount();
+        long end = start + Math.max(2 * every, reached - start) + MAX_RETIRED;
+        while(true){
+            if(a.getCycleCount() > end)
+                return "The engines matched when run again, they are not deterministic\n";
+            if(a.getCycleCount() <= b.getCycleCount()){
+                int pc = a.getProgramCounter();
+                int opcode = a.readMemory(pc) << 8 | a.readMemory(pc + 1);
+                trace[(int)(traced++ % TRACE)] = String.format("%8d  %03X  %04X  %s", a.getCycleCount(), pc,
+                        opcode, ROMAnalyzer.disassemble(opcode));
+                a.emulateCycle();
+            }
+            else
+                b.emulateCycle();
+            if(a.getCycleCount() == b.getCycleCount() && hash(a) != hash(b))
+                break;
+        }
+        StringBuilder report = new StringBuilder("Last instructions of " + first + ":\n");
+        for(long i = Math.max(0, traced - TRACE); i < traced; i++)
+            report.append(trace[(int)(i % TRACE)]).append('\n');
+        report.append("Differences after cycle ").append(a.getCycleCount()).append(", ")
+                .append(first).append(" vs ").append(second).append(":\n");
+        diff(report, "PC", a.getProgramCounter(), b.getProgramCounter());
+        diff(report, "I", a.getIndexRegister(), b.getIndexRegister());
+        diff(report, "DT", a.getDelayTimer(), b.getDelayTimer());
+        diff(report, "ST", a.getSoundTimer(), b.getSoundTimer());
+        diff(report, "SP", a.getStackPointer(), b.getStackPointer());
+        diff(report, "width", a.getWidth(), b.getWidth());
+        for(int i = 0; i < 16; i++)
+            diff(report, "V" + Integer.toHexString(i).toUpperCase(), a.getRegister(i), b.getRegister(i));
+        for(int i = 0; i < Math.min(a.getStackPointer(), b.getStackPointer()); i++)
+            diff(report, "stack " + i, a.getStack(i), b.getStack(i));
+        int differences = 0;
+        for(int i = 0; i < Math.min(a.getMemorySize(), b.getMemorySize()); i++)
+            if(a.readMemory(i) != b.readMemory(i) && differences++ < DIFF_LIMIT)
+                diff(report, String.format("memory %03X", i), a.readMemory(i), b.readMemory(i));
+        if(differences > DIFF_LIMIT)
+            report.append("  ").append(differences - DIFF_LIMIT).append(" more memory differences\n");
+        diff(report, "memory size", a.getMemorySize(), b.getMemorySize());
+        diffScreens(report, a, b);
+        return report.toString();
+    }
+
+    private static void diff(StringBuilder report, String name, int a, int b){
+        if(a != b)
+            report.append(String.format("  %-12s %X vs %X%n", name, a, b));
+    }
+
+    private static void diffScreens(StringBuilder report, CPU a, CPU b){
+        byte[] frameA = new byte[CPU.MAX_FRAME_BYTES], frameB = new byte[CPU.MAX_FRAME_BYTES];
+        a.copyFramebuffer(frameA);
+        b.copyFramebuffer(frameB);
+        int differences = 0;
+        for(int i = 0; i < frameA.length; i++){
+            int bits = (frameA[i] ^ frameB[i]) & 0xFF;
+            for(int bit = 7; bit >= 0; bit--)
+                if((bits >> bit & 1) != 0 && differences++ < DIFF_LIMIT)
+                    report.append(String.format("  pixel %d,%d %d vs %d%n", (i * 8 + 7 - bit) % a.getWidth(),
+                            (i * 8 + 7 - bit) / a.getWidth(), frameA[i] >> bit & 1, frameB[i] >> bit & 1));
+        }
+        if(differences > DIFF_LIMIT)
+            report.append("  ").append(differences - DIFF_LIMIT).append(" more pixel differences\n");
+    }
+
+    private static void addROMs(File file, ArrayList<String> roms){
+        if(file.isDirectory()){
+            File[] children = file.listFiles();
+            if(children != null)
+                for(File child : children)
+                    addROMs(child, roms);
+        }
+        else
+            roms.add(file.getPath());
+    }
+
+    public static void main(String[] args) throws Exception{
+        String[] engines = { "stepped", "interpreter" };
+        long cycles = 1000000, every = 1000;
+        String aotDirectory = "aot";
+        String quirks = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> roms = new ArrayList<String>();
+        boolean regressions = false;
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("-engines") && i + 1 < args.length)
+                engines = args[++i].split(",");
+            else if(args[i].equals("-cycles") && i + 1 < args.length)
+                cycles = Long.parseLong(args[++i]);
+            else if(args[i].equals("-every") && i + 1 < args.length)
+                every = Long.parseLong(args[++i]);
+            else if(args[i].equals("-aot") && i + 1 < args.length)
+                aotDirectory = args[++i];
+            else if(args[i].equals("-quirks") && i + 1 < args.length)
+                quirks = args[++i];
+            else if(args[i].equals("-threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-regressions"))
+                regressions = true;
+            else
+                addROMs(new File(args[i]), roms);
+        }
+        QuirkProfile profile = quirks == null ? null : QuirkProfile.forId(quirks);
+        if((roms.isEmpty() && !regressions) || engines.length != 2 || (quirks != null && profile == null) || every <= 0){
+            System.out.println("Usage: java LockstepChecker [-engines <engine>,<engine>] [-cycles <n>] [-every <n>]");
+            System.out.println("           [-aot <cache directory>] [-quirks <profile>] [-threads <n>] [-regressions] <rom file or directory>...");
+            System.out.println("Engines: stepped, interpreter, aot");
+            return;
+        }
+        for(String engine : engines)
+            if(!engine.equals("stepped") && !engine.equals("interpreter") && !engine.equals("aot")){
+                System.out.println("Unknown engine " + engine);
+                return;
+            }
+
+        final LockstepChecker checker = new LockstepChecker(engines[0], engines[1], cycles, every, aotDirectory, profile);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<String>> reports = new ArrayList<Future<String>>();
+        for(final String rom : roms)
+            reports.add(pool.submit(new Callable<String>(){
+                public String call(){
+                    return checker.check(rom);
+                }
+            }));
+        for(int i = 0; regressions && i < REGRESSIONS.length; i++){
+            final String name = "regression \"" + REGRESSION_NAMES[i] + "\"";
+            final int[] rom = REGRESSIONS[i];
+            reports.add(pool.submit(new Callable<String>(){
+                public String call(){
+                    return checker.check(name, rom);
+                }
+            }));
+        }
+        boolean diverged = false;
+        for(Future<String> report : reports){
+            String text = report.get();
+            diverged |= !text.startsWith("ok ");
+            System.out.println(text);
+        }
+        pool.shutdown();
+        System.exit(diverged ? 1 : 0);
+    }
+}
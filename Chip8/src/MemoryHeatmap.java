@@ -0,0 +1,137 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.imageio.ImageIO;
+
+/**
+ * Counts the reads, writes and instruction fetches of every memory address
+ * The counters are incremented by the State memory accessors while the
+ * heatmap is given to CPU#setMemoryHeatmap, at the cost of one array
+ * increment per access. Fetches are counted per instruction, so while a
+ * heatmap is recording the CPU runs without fused or compiled code.
+ *
+ * The heatmap is exported as CSV with a row per address, or as a PNG of the
+ * memory map with a cell per address, 64 addresses to a row. Writes are red,
+ * reads green and fetches blue, brighter for more accesses on a log scale.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class MemoryHeatmap {
+    public static final int COLUMNS = 64;//Addresses per row of the PNG
+    public static final int CELL = 8;//Pixels per address in the PNG
+
+    final long[] reads = new long[CPU.XO_MEMORY_SIZE];
+    final long[] writes = new long[CPU.XO_MEMORY_SIZE];
+    final long[] fetches = new long[CPU.XO_MEMORY_SIZE];
+
+    /**
+     * @param address An address
+     * @return Number of times address was read by an instruction
+     */
+    public long getReads(int address){
+        return reads[address];
+    }
+
+    /**
+     * @param address An address
+     * @return Number of times address was written
+     */
+    public long getWrites(int address){
+        return writes[address];
+    }
+
+    /**
+     * @param address An address
+     * @return Number of times address was fetched as part of an instruction
+     */
+    public long getFetches(int address){
+        return fetches[address];
+    }
+
+    /**
+     * Sets every counter to 0
+     */
+    public void reset(){
+        for(int i = 0; i < CPU.XO_MEMORY_SIZE; i++)
+            reads[i] = writes[i] = fetches[i] = 0;
+    }
+
+    /**
+     * Writes the counters as CSV, one row per address that was accessed
+     *
+     * @param fileName Name of the CSV file
+     * @throws IOException If the file cannot be written
+     */
+    public void writeCSV(String fileName) throws IOException{
+        PrintWriter out = new PrintWriter(new FileWriter(fileName));
+        try{
+            out.println("address,reads,writes,fetches");
+            for(int i = 0; i < CPU.XO_MEMORY_SIZE; i++)
+                if(reads[i] != 0 || writes[i] != 0 || fetches[i] != 0)
+                    out.println(String.format("0x%03X,%d,%d,%d", i, reads[i], writes[i], fetches[i]));
+        }
+        finally{
+            out.close();
+        }
+    }
+
+    /**
+     * Renders the heatmap over the memory map
+     * Page boundaries are marked with a line, and the start of the ROM with a brighter one
+     * The map covers MEMORY_SIZE addresses, or more in steps of MEMORY_SIZE if the
+     * XO-CHIP address space was used
+     *
+     * @return The image
+     */
+    public BufferedImage render(){
+        int size = CPU.MEMORY_SIZE;
+        for(int i = CPU.MEMORY_SIZE; i < CPU.XO_MEMORY_SIZE; i++)
+            if(reads[i] != 0 || writes[i] != 0 || fetches[i] != 0)
+                size = (i / CPU.MEMORY_SIZE + 1) * CPU.MEMORY_SIZE;
+        int rows = size / COLUMNS;
+        BufferedImage image = new BufferedImage(COLUMNS * CELL, rows * CELL, BufferedImage.TYPE_INT_RGB);
+        double max = Math.log1p(Math.max(max(reads), Math.max(max(writes), max(fetches))));
+        Graphics2D g = image.createGraphics();
+        for(int i = 0; i < size; i++){
+            g.setColor(new Color(level(writes[i], max), level(reads[i], max), level(fetches[i], max)));
+            g.fillRect((i % COLUMNS) * CELL, (i / COLUMNS) * CELL, CELL, CELL);
+        }
+
+        int rowsPerPage = State.PAGE_SIZE / COLUMNS;
+        for(int row = 0; row < rows; row += rowsPerPage){
+            g.setColor(row * COLUMNS == CPU.ROM_OFFSET ? Color.WHITE : Color.DARK_GRAY);
+            g.drawLine(0, row * CELL, image.getWidth(), row * CELL);
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Writes the rendered heatmap as a PNG
+     *
+     * @param fileName Name of the PNG file
+     * @throws IOException If the file cannot be written
+     */
+    public void writePNG(String fileName) throws IOException{
+        ImageIO.write(render(), "png", new File(fileName));
+    }
+
+    private static long max(long[] counts){
+        long max = 0;
+        for(int i = 0; i < counts.length; i++)
+            max = Math.max(max, counts[i]);
+        return max;
+    }
+
+    /**
+     * @return Brightness of count from 0 to 255, on a log scale up to max
+     */
+    private static int level(long count, double max){
+        return count == 0 || max == 0 ? 0 : (int)(55 + 200 * Math.log1p(count) / max);
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Replays a movie written by MovieRecorder into a CPU without a window
+ * Runs at maximum speed, so long sessions replay in seconds
+ *
+ * Usage: java MoviePlayer <rom file> <movie file> [-hashes] [-aot <cache directory>] [-trace <trace file>] [-heatmap <file prefix>]
+ * With -hashes, prints the cycle and frame hash of every changed frame,
+ * which can be kept as a golden signature of the session
+ * With -aot, the ROM is compiled ahead of time, see AOTCompiler
+ * With -trace, every instruction is recorded, see TraceLogger
+ * With -heatmap, memory accesses are counted and written to prefix.csv and prefix.png
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class MoviePlayer {
+    private DataInputStream in;
+    private long romHash;
+    private long seed;
+
+    /**
+     * Opens a movie file and reads its header
+     *
+     * @param fileName Name of the movie file
+     * @throws IOException If the file is not a movie
+     */
+    public MoviePlayer(String fileName) throws IOException{
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+        if(in.readInt() != MovieRecorder.MAGIC || in.readUnsignedByte() != MovieRecorder.VERSION){
+            in.close();
+            throw new IOException("Not a movie file: " + fileName);
+        }
+        romHash = in.readLong();
+        seed = in.readLong();
+    }
+
+    /**
+     * @return Hash of the ROM the movie was recorded with
+     */
+    public long getRomHash(){
+        return romHash;
+    }
+
+    /**
+     * @return Seed the movie was recorded with
+     */
+    public long getSeed(){
+        return seed;
+    }
+
+    /**
+     * Replays the movie on cpu, the ROM must already be loaded
+     * Every key change is applied before the cycle it was recorded on
+     *
+     * @param cpu The CPU to replay on
+     * @param hashes Receives the cycle and hash of every changed frame, or null
+     * @return The number of cycles emulated
+     * @throws IOException If the movie is truncated
+     */
+    public long play(CPU cpu, PrintStream hashes) throws IOException{
+        cpu.setSeed(seed);
+        long cycle = 0;
+        long lastHash = cpu.getFrameHash();
+        try{
+            while(true){
+                cycle += MovieRecorder.readVarLong(in);
+                int event = in.readUnsignedByte();
+                while(cpu.getCycleCount() < cycle){
+                    cpu.emulateCycle(cycle);
+                    if(hashes != null && cpu.getDrawFlag()){
+                        cpu.setDrawFlag(false);
+                        long hash = cpu.getFrameHash();
+                        if(hash != lastHash)
+                            hashes.println(cpu.getCycleCount() + " " + Long.toHexString(hash));
+                        lastHash = hash;
+                    }
+                }
+                if(event == MovieRecorder.END)
+                    break;
+                cpu.setKey(event >> 1, event & 1);
+            }
+        }
+        finally{
+            in.close();
+        }
+        return cycle;
+    }
+
+    public static void main(String[] args) throws IOException{
+        if(args.length < 2){
+            System.out.println("Usage: java MoviePlayer <rom file> <movie file> [-hashes] [-aot <cache directory>] [-trace <trace file>] [-heatmap <file prefix>] [-quirks default|vip|chip48|superchip|modern]");
+            return;
+        }
+        CPU cpu = new Chip8();
+        cpu.initState();
+        cpu.setSoundEnabled(false);
+        boolean printHashes = false;
+        String traceFile = null;
+        String heatmapPrefix = null;
+        for(int i = 2; i < args.length; i++){
+            if(args[i].equals("-hashes"))
+                printHashes = true;
+            else if(args[i].equals("-aot") && i + 1 < args.length)
+                cpu.setCompileCache(args[++i]);
+            else if(args[i].equals("-trace") && i + 1 < args.length)
+                traceFile = args[++i];
+            else if(args[i].equals("-heatmap") && i + 1 < args.length)
+                heatmapPrefix = args[++i];
+            else if(args[i].equals("-quirks") && i + 1 < args.length){
+                QuirkProfile profile = QuirkProfile.forId(args[++i]);
+                if(profile == null){
+                    System.out.println("Unknown quirk profile " + args[i]);
+                    return;
+                }
+                cpu.setQuirkProfile(profile);
+            }
+        }
+        cpu.loadROM(args[0]);
+
+        MoviePlayer player = new MoviePlayer(args[1]);
+        if(cpu.getROMHash() != player.getRomHash())
+            System.out.println("Warning: movie was recorded with a different ROM");
+
+        TraceLogger tracer = null;
+        if(traceFile != null){
+            tracer = new TraceLogger(traceFile);
+            cpu.setTracer(tracer);
+        }
+
+        MemoryHeatmap heatmap = null;
+        if(heatmapPrefix != null){
+            heatmap = new MemoryHeatmap();
+            cpu.setMemoryHeatmap(heatmap);
+        }
+
+        long start = System.nanoTime();
+        long cycles = player.play(cpu, printHashes ? System.out : null);
+        long elapsed = System.nanoTime() - start;
+        if(tracer != null){
+            cpu.setTracer(null);
+            tracer.close();
+        }
+        if(heatmap != null){
+            heatmap.writeCSV(heatmapPrefix + ".csv");
+            heatmap.writePNG(heatmapPrefix + ".png");
+        }
+        System.out.println("Replayed " + cycles + " cycles in " + elapsed / 1000000 + " ms ("
+                + (long)(cycles * 1e9 / Math.max(elapsed, 1)) + " cycles/s)");
+        System.out.println("Final frame hash " + Long.toHexString(cpu.getFrameHash()));
+    }
+}
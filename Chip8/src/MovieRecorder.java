@@ -0,0 +1,145 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records a session as a movie that can be replayed exactly by MoviePlayer
+ * The movie stores the ROM hash and seed the session started from, followed
+ * by every key change stamped with the cycle it was applied on
+ *
+ * Key changes are queued from the UI thread and applied by the CPU at the
+ * start of a cycle, so the recorded cycle is the cycle the game saw them on
+ *
+ * File format (big endian):
+ * int MAGIC, byte VERSION, long romHash, long seed
+ * For each key change: varint cycles since last change, byte key << 1 | state
+ * At the end: varint cycles since last change, byte END
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class MovieRecorder {
+    public static final int MAGIC = 0x43384D56;//"C8MV"
+    public static final int VERSION = 1;
+    public static final int END = 0xFF;
+
+    private DataOutputStream out;
+    private int[] pending;//Queued key changes stored as key << 1 | state
+    private volatile int pendingCount;
+    private long lastCycle;
+
+    /**
+     * Creates a movie file and writes its header
+     *
+     * @param fileName Name of the movie file
+     * @param romHash Hash of the ROM the session runs
+     * @param seed Seed of the random number generator
+     * @throws IOException If the file cannot be written
+     */
+    public MovieRecorder(String fileName, long romHash, long seed) throws IOException{
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(romHash);
+        out.writeLong(seed);
+        pending = new int[64];
+    }
+
+    /**
+     * Queues a key change, called from the UI thread
+     *
+     * @param loc The index in the key array
+     * @param state 1 or 0 if the key is pressed
+     */
+    public synchronized void keyChanged(int loc, int state){
+        if(pendingCount == pending.length)
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        pending[pendingCount++] = loc << 1 | (state != 0 ? 1 : 0);
+    }
+
+    /**
+     * Applies the queued key changes to the state and records the ones that
+     * change a key, called by the CPU before each cycle
+     *
+     * @param state The state receiving the keys
+     */
+    public void applyPending(State state){
+        if(pendingCount == 0)
+            return;
+        synchronized(this){
+            for(int i = 0; i < pendingCount; i++){
+                int loc = pending[i] >> 1;
+                int val = pending[i] & 1;
+                if(state.getKey(loc) == val)//Key repeat, nothing changed
+                    continue;
+                state.setKey(loc, val);
+                write(state.getCycleCount(), pending[i]);
+            }
+            pendingCount = 0;
+        }
+    }
+
+    /**
+     * Ends the movie and closes the file
+     *
+     * @param cycle The cycle the session ended on
+     */
+    public synchronized void close(long cycle){
+        if(out == null)
+            return;
+        write(cycle, END);
+        try{
+            out.close();
+        }
+        catch(IOException e){
+            System.out.println("Cannot close movie");
+        }
+        out = null;
+    }
+
+    /**
+     * Writes one record, stops recording if the file cannot be written
+     */
+    private void write(long cycle, int event){
+        if(out == null)
+            return;
+        try{
+            writeVarLong(out, cycle - lastCycle);
+            out.writeByte(event);
+            lastCycle = cycle;
+        }
+        catch(IOException e){
+            System.out.println("Cannot write movie");
+            out = null;
+        }
+    }
+
+    /**
+     * Writes a positive long using 7 bits per byte, most cycle gaps fit in 1-3 bytes
+     */
+    static void writeVarLong(DataOutputStream out, long val) throws IOException{
+        while((val & ~0x7FL) != 0){
+            out.writeByte((int)(val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+        out.writeByte((int)val);
+    }
+
+    /**
+     * Reads a long written by writeVarLong
+     */
+    static long readVarLong(DataInputStream in) throws IOException{
+        long val = 0;
+        int shift = 0;
+        int b;
+        do{
+            b = in.readUnsignedByte();
+            val |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        }while((b & 0x80) != 0);
+        return val;
+    }
+}
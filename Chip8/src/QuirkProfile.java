@@ -0,0 +1,132 @@
+/**
+ * The behaviours that differ between Chip8 platforms, and the ROMs rely on
+ * A profile is baked into its own instruction table, see InstructionTable#build,
+ * so each opcode maps to the handler for its quirk and running a profile
+ * costs nothing per instruction. Tables are built on first use and shared.
+ *
+ * DEFAULT   - this emulator as it always was: 8XY6/8XYE shift VX, FX55/FX65
+ *             add X + 1 to I, sprites off the screen are not drawn
+ * VIP       - the COSMAC VIP interpreter: shifts read VY, 8XY1/8XY2/8XY3
+ *             reset VF, FX55/FX65 add X + 1 to I, sprites start wrapped
+ * CHIP48    - shifts VX, FX55/FX65 add X to I, BXNN jumps to XNN + VX
+ * SUPERCHIP - SUPER-CHIP 1.1: shifts VX, FX55/FX65 leave I, BXNN jumps to XNN + VX
+ * MODERN    - XO-CHIP as Octo runs it: shifts read VY, FX55/FX65 add X + 1
+ *             to I, sprites wrap around the edges
+ *
+ * Except for DEFAULT, sprites start at VX and VY wrapped onto the screen.
+ *
+ * Every profile runs the SUPER-CHIP and XO-CHIP opcodes, DEFAULT included.
+ * That changes DEFAULT where a skip lands on F000: the skip now passes the
+ * whole 4 byte F000 NNNN, where it used to pass only the F000.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class QuirkProfile {
+    //Sprite edges: not drawn if the start is off the screen, start wrapped then clipped, or wrapped
+    public static final int CLIP = 0, WRAP_START = 1, WRAP = 2;
+
+    //What FX55/FX65 add to I besides X, or that I is left alone
+    private static final int KEEP_INDEX = -1;
+
+    public static final QuirkProfile DEFAULT = new QuirkProfile("default", "Default", false, false, 1, false, CLIP);
+    public static final QuirkProfile VIP = new QuirkProfile("vip", "COSMAC VIP", true, true, 1, false, WRAP_START);
+    public static final QuirkProfile CHIP48 = new QuirkProfile("chip48", "CHIP-48", false, false, 0, true, WRAP_START);
+    public static final QuirkProfile SUPERCHIP = new QuirkProfile("superchip", "SUPER-CHIP", false, false, KEEP_INDEX, true, WRAP_START);
+    public static final QuirkProfile MODERN = new QuirkProfile("modern", "Modern", true, false, 1, false, WRAP);
+    public static final QuirkProfile[] PROFILES = { DEFAULT, VIP, CHIP48, SUPERCHIP, MODERN };
+
+    private final String id, name;
+    private final boolean shiftsVY, resetsVF, jumpsWithVX;
+    private final int indexStep, sprites;
+    private Instruction[] table;
+
+    private QuirkProfile(String id, String name, boolean shiftsVY, boolean resetsVF, int indexStep, boolean jumpsWithVX, int sprites){
+        this.id = id;
+        this.name = name;
+        this.shiftsVY = shiftsVY;
+        this.resetsVF = resetsVF;
+        this.indexStep = indexStep;
+        this.jumpsWithVX = jumpsWithVX;
+        this.sprites = sprites;
+    }
+
+    /**
+     * @return Short name, as given on command lines and in files
+     */
+    public String getId(){
+        return id;
+    }
+
+    /**
+     * @return Name shown to the user
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return True if 8XY6 and 8XYE shift VY into VX, else VX is shifted in place
+     */
+    public boolean shiftsVY(){
+        return shiftsVY;
+    }
+
+    /**
+     * @return True if 8XY1, 8XY2 and 8XY3 set VF to 0
+     */
+    public boolean resetsVF(){
+        return resetsVF;
+    }
+
+    /**
+     * @return True if BXNN jumps to XNN + VX, else BNNN jumps to NNN + V0
+     */
+    public boolean jumpsWithVX(){
+        return jumpsWithVX;
+    }
+
+    /**
+     * @param x X of the FX55 or FX65
+     * @return Amount FX55 and FX65 add to I
+     */
+    public int indexIncrement(int x){
+        return indexStep == KEEP_INDEX ? 0 : x + indexStep;
+    }
+
+    /**
+     * @return CLIP, WRAP_START or WRAP
+     */
+    public int getSprites(){
+        return sprites;
+    }
+
+    /**
+     * Returns the instruction table of the profile, built the first time
+     * The DEFAULT table is InstructionTable.TABLE, which compiled code mirrors
+     *
+     * @return The table
+     */
+    public synchronized Instruction[] getTable(){
+        if(this == DEFAULT)
+            return InstructionTable.TABLE;
+        if(table == null)
+            table = InstructionTable.build(this);
+        return table;
+    }
+
+    /**
+     * @param id Id of a profile, ignoring case
+     * @return The profile, or null if there is none with that id
+     */
+    public static QuirkProfile forId(String id){
+        for(QuirkProfile profile : PROFILES)
+            if(profile.id.equalsIgnoreCase(id))
+                return profile;
+        return null;
+    }
+
+    public String toString(){
+        return name;
+    }
+}
@@ -0,0 +1,451 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the code of a ROM without running it
+ * Code is found by walking from 0x200 through jumps, calls, returns and
+ * skips, and split into basic blocks that form a control flow graph.
+ * BNNN is followed when NNN starts a table of jumps, the usual way it is used.
+ * Bytes that are only read by the program are marked as well: the bytes
+ * DXYN draws from after an ANNN in the same block are SPRITE, and the bytes
+ * FX33, FX55 and FX65 use after an ANNN are DATA.
+ * The XO-CHIP F000 NNNN is 4 bytes long, skips over it skip all 4 bytes.
+ *
+ * Usage: java ROMAnalyzer <rom file>
+ * Prints the disassembly of the ROM
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class ROMAnalyzer {
+    //Kinds of bytes
+    public static final int UNKNOWN = 0, CODE = 1, OPERAND = 2, SPRITE = 3, DATA = 4;
+    public static final int MAX_JUMP_TABLE = 64;//Entries followed after a BNNN
+
+    private final int[] rom;
+    private final int size;//End of the ROM, at least MEMORY_SIZE
+    private final int[] kind;
+    private final boolean[] leader;
+    private final BasicBlock[] blockAt;
+    private final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+
+    /**
+     * A straight run of instructions that is only entered at its start
+     */
+    public static class BasicBlock {
+        private final int start, end;
+        private final int[] successors;
+        private final boolean endsWithCall;
+
+        BasicBlock(int start, int end, int[] successors, boolean endsWithCall){
+            this.start = start;
+            this.end = end;
+            this.successors = successors;
+            this.endsWithCall = endsWithCall;
+        }
+
+        /**
+         * @return Address of the first instruction
+         */
+        public int getStart(){
+            return start;
+        }
+
+        /**
+         * @return Address after the last instruction
+         */
+        public int getEnd(){
+            return end;
+        }
+
+        /**
+         * @return Addresses control can go to after the block, for a call the target and return address
+         */
+        public int[] getSuccessors(){
+            return successors.clone();
+        }
+
+        /**
+         * @return True if the block ends with a 2NNN call
+         */
+        public boolean endsWithCall(){
+            return endsWithCall;
+        }
+    }
+
+    /**
+     * Analyzes a ROM
+     *
+     * @param rom The ROM as returned by ApplicationLoader#getROMFromFile
+     */
+    public ROMAnalyzer(int[] rom){
+        this.rom = rom;
+        size = Math.max(CPU.MEMORY_SIZE, CPU.ROM_OFFSET + rom.length);
+        kind = new int[size];
+        leader = new boolean[size];
+        blockAt = new BasicBlock[size];
+        findCode();
+        buildBlocks();
+        findData();
+    }
+
+    /**
+     * @return Address after the end of the ROM, at least MEMORY_SIZE
+     */
+    public int getSize(){
+        return size;
+    }
+
+    /**
+     * @param address An address
+     * @return UNKNOWN, CODE, OPERAND, SPRITE or DATA
+     */
+    public int getKind(int address){
+        return kind[address];
+    }
+
+    /**
+     * @param address An address
+     * @return True if an instruction starts at address
+     */
+    public boolean isCode(int address){
+        return kind[address] == CODE;
+    }
+
+    /**
+     * @param address An address
+     * @return True if a basic block starts at address
+     */
+    public boolean isLeader(int address){
+        return leader[address];
+    }
+
+    /**
+     * @param address An address
+     * @return The basic block starting at address, or null
+     */
+    public BasicBlock getBlockAt(int address){
+        return blockAt[address];
+    }
+
+    /**
+     * @return The basic blocks in address order
+     */
+    public List<BasicBlock> getBlocks(){
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Walks the reachable code, marking instructions and block leaders
+     */
+    private void findCode(){
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+        addLeader(work, CPU.ROM_OFFSET);
+        while(!work.isEmpty()){
+            int address = work.poll();
+            if(!inROM(address) || kind[address] == CODE)
+                continue;
+            kind[address] = CODE;
+            kind[address + 1] = OPERAND;
+            int opcode = opcodeAt(address);
+            Instruction instruction = InstructionTable.TABLE[opcode];
+            int next = address + length(address);
+            for(int i = address + 2; i < next && i < size; i++)
+                kind[i] = OPERAND;
+
+            if(instruction instanceof InstructionTable.Jump)
+                addLeader(work, opcode & 0x0FFF);
+            else if(instruction instanceof InstructionTable.Call){
+                addLeader(work, opcode & 0x0FFF);
+                addLeader(work, next);//Return address
+            }
+            else if(isSkip(instruction)){
+                addLeader(work, next);
+                addLeader(work, next + length(next));
+            }
+            else if(instruction instanceof InstructionTable.WaitKey){
+                leader[address] = true;//Loops on itself until a key is pressed
+                addLeader(work, next);
+            }
+            else if(instruction instanceof InstructionTable.JumpOffset)
+                for(int target : jumpTable(opcode & 0x0FFF))
+                    addLeader(work, target);
+            else if(!isEnd(instruction))
+                work.add(next);
+        }
+    }
+
+    /**
+     * Returns the entries of a jump table at address, a run of 1NNN instructions
+     */
+    private List<Integer> jumpTable(int address){
+        List<Integer> targets = new ArrayList<Integer>();
+        for(int i = 0; i < MAX_JUMP_TABLE && inROM(address + 2 * i); i++){
+            if(!(InstructionTable.TABLE[opcodeAt(address + 2 * i)] instanceof InstructionTable.Jump))
+                break;
+            targets.add(address + 2 * i);
+        }
+        return targets;
+    }
+
+    private void addLeader(ArrayDeque<Integer> work, int address){
+        if(!inROM(address))
+            return;
+        leader[address] = true;
+        work.add(address);
+    }
+
+    /**
+     * Splits the code into basic blocks at every leader and control transfer
+     */
+    private void buildBlocks(){
+        for(int start = CPU.ROM_OFFSET; start < size; start++){
+            if(!leader[start] || kind[start] != CODE)
+                continue;
+            int address = start;
+            while(true){
+                int opcode = opcodeAt(address);
+                Instruction instruction = InstructionTable.TABLE[opcode];
+                int next = address + length(address);
+                int[] successors = null;
+                boolean call = false;
+
+                if(instruction instanceof InstructionTable.Jump)
+                    successors = new int[]{ opcode & 0x0FFF };
+                else if(instruction instanceof InstructionTable.Call){
+                    successors = new int[]{ opcode & 0x0FFF, next };
+                    call = true;
+                }
+                else if(isSkip(instruction))
+                    successors = new int[]{ next, next + length(next) };
+                else if(instruction instanceof InstructionTable.WaitKey)
+                    successors = new int[]{ address, next };
+                else if(instruction instanceof InstructionTable.JumpOffset){
+                    List<Integer> targets = jumpTable(opcode & 0x0FFF);
+                    successors = new int[targets.size()];
+                    for(int i = 0; i < successors.length; i++)
+                        successors[i] = targets.get(i);
+                }
+                else if(isEnd(instruction))
+                    successors = new int[0];
+                else if(!inROM(next) || kind[next] != CODE || leader[next])
+                    successors = inROM(next) && kind[next] == CODE ? new int[]{ next } : new int[0];
+
+                if(successors != null){
+                    BasicBlock block = new BasicBlock(start, next, successors, call);
+                    blocks.add(block);
+                    blockAt[start] = block;
+                    break;
+                }
+                address = next;
+            }
+        }
+    }
+
+    /**
+     * Marks the bytes read through I after an ANNN in the same block
+     */
+    private void findData(){
+        for(BasicBlock block : blocks){
+            int index = -1;//Value of I, or -1 if unknown
+            for(int address = block.getStart(); address < block.getEnd(); address += length(address)){
+                int opcode = opcodeAt(address);
+                Instruction instruction = InstructionTable.TABLE[opcode];
+                int x = (opcode & 0x0F00) >> 8;
+                if(instruction instanceof InstructionTable.SetIndex)
+                    index = opcode & 0x0FFF;
+                else if(instruction instanceof InstructionTable.LongIndex)
+                    index = inROM(address + 2) ? opcodeAt(address + 2) : -1;
+                else if(index < 0)
+                    continue;
+                else if(instruction instanceof InstructionTable.Draw)
+                    mark(index, (opcode & 0x000F) == 0 ? 32 : opcode & 0x000F, SPRITE);
+                else if(instruction instanceof InstructionTable.BCD)
+                    mark(index, 3, DATA);
+                else if(instruction instanceof InstructionTable.Store
+                        || instruction instanceof InstructionTable.Load){
+                    mark(index, x + 1, DATA);
+                    index += x + 1;
+                }
+                else if(instruction instanceof InstructionTable.AddIndex
+                        || instruction instanceof InstructionTable.Font
+                        || instruction instanceof InstructionTable.BigFont)
+                    index = -1;
+            }
+        }
+    }
+
+    /**
+     * Marks length bytes at address as kind, code is never overwritten
+     */
+    private void mark(int address, int length, int type){
+        for(int i = address; i < address + length && i < size; i++)
+            if(kind[i] == UNKNOWN)
+                kind[i] = type;
+    }
+
+    /**
+     * Returns a listing of the ROM, instructions are disassembled and
+     * sprites are drawn with # for set pixels
+     *
+     * @return The listing
+     */
+    public String disassemble(){
+        StringBuilder out = new StringBuilder();
+        int last = CPU.ROM_OFFSET + rom.length - 1;
+        while(last > CPU.ROM_OFFSET && kind[last] == UNKNOWN && rom[last - CPU.ROM_OFFSET] == 0)
+            last--;//Skip the zero padding after the ROM
+
+        for(int address = CPU.ROM_OFFSET; address <= last; address++){
+            if(leader[address])
+                out.append("\n");
+            out.append(String.format("%03X  ", address));
+            if(kind[address] == CODE && length(address) == 4){
+                int operand = opcodeAt(address + 2);
+                out.append(String.format("%04X  LD I, 0x%04X  ; %04X", opcodeAt(address), operand, operand));
+                address += 3;
+            }
+            else if(kind[address] == CODE){
+                int opcode = opcodeAt(address);
+                out.append(String.format("%04X  %s", opcode, disassemble(opcode)));
+                address++;
+            }
+            else{
+                int value = rom[address - CPU.ROM_OFFSET] & 0xFF;
+                out.append(String.format("%02X    db 0x%02X", value, value));
+                if(kind[address] == SPRITE){
+                    out.append("  ");
+                    for(int bit = 7; bit >= 0; bit--)
+                        out.append((value >> bit & 1) != 0 ? '#' : '.');
+                }
+                else if(kind[address] == DATA)
+                    out.append("  data");
+            }
+            out.append("\n");
+        }
+        return out.toString();
+    }
+
+    /**
+     * Disassembles a single opcode
+     *
+     * @param opcode The opcode
+     * @return Assembly for the opcode
+     */
+    public static String disassemble(int opcode){
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        String nn = String.format("0x%02X", opcode & 0x00FF);
+        String nnn = String.format("0x%03X", opcode & 0x0FFF);
+        String vx = "V" + Integer.toHexString(x).toUpperCase();
+        String vy = "V" + Integer.toHexString(y).toUpperCase();
+        Instruction instruction = InstructionTable.TABLE[opcode & 0xFFFF];
+
+        if(instruction instanceof InstructionTable.ClearScreen) return "CLS";
+        if(instruction instanceof InstructionTable.ScrollDown) return "SCD " + (opcode & 0x000F);
+        if(instruction instanceof InstructionTable.ScrollUp) return "SCU " + (opcode & 0x000F);
+        if(instruction instanceof InstructionTable.ScrollRight) return "SCR";
+        if(instruction instanceof InstructionTable.ScrollLeft) return "SCL";
+        if(instruction instanceof InstructionTable.Exit) return "EXIT";
+        if(instruction instanceof InstructionTable.LowRes) return "LOW";
+        if(instruction instanceof InstructionTable.HighRes) return "HIGH";
+        if(instruction instanceof InstructionTable.SaveRange) return "SAVE " + vx + " - " + vy;
+        if(instruction instanceof InstructionTable.LoadRange) return "LOAD " + vx + " - " + vy;
+        if(instruction instanceof InstructionTable.BigFont) return "LD HF, " + vx;
+        if(instruction instanceof InstructionTable.SaveFlags) return "LD R, " + vx;
+        if(instruction instanceof InstructionTable.LoadFlags) return "LD " + vx + ", R";
+        if(instruction instanceof InstructionTable.LongIndex) return "LD I, long";
+        if(instruction instanceof InstructionTable.Plane) return "PLANE " + x;
+        if(instruction instanceof InstructionTable.AudioPattern) return "AUDIO";
+        if(instruction instanceof InstructionTable.Pitch) return "PITCH " + vx;
+        if(instruction instanceof InstructionTable.Return) return "RET";
+        if(instruction instanceof InstructionTable.Jump) return "JP " + nnn;
+        if(instruction instanceof InstructionTable.Call) return "CALL " + nnn;
+        if(instruction instanceof InstructionTable.SkipIfEqual) return "SE " + vx + ", " + nn;
+        if(instruction instanceof InstructionTable.SkipIfNotEqual) return "SNE " + vx + ", " + nn;
+        if(instruction instanceof InstructionTable.SkipIfRegistersEqual) return "SE " + vx + ", " + vy;
+        if(instruction instanceof InstructionTable.Set) return "LD " + vx + ", " + nn;
+        if(instruction instanceof InstructionTable.Add) return "ADD " + vx + ", " + nn;
+        if(instruction instanceof InstructionTable.Copy) return "LD " + vx + ", " + vy;
+        if(instruction instanceof InstructionTable.Or) return "OR " + vx + ", " + vy;
+        if(instruction instanceof InstructionTable.And) return "AND " + vx + ", " + vy;
+        if(instruction instanceof InstructionTable.Xor) return "XOR " + vx + ", " + vy;
+        if(instruction instanceof InstructionTable.AddRegisters) return "ADD " + vx + ", " + vy;
+        if(instruction instanceof InstructionTable.SubtractRegisters) return "SUB " + vx + ", " + vy;
+        if(instruction instanceof InstructionTable.ShiftRight) return "SHR " + vx;
+        if(instruction instanceof InstructionTable.ReverseSubtract) return "SUBN " + vx + ", " + vy;
+        if(instruction instanceof InstructionTable.ShiftLeft) return "SHL " + vx;
+        if(instruction instanceof InstructionTable.SkipIfRegistersNotEqual) return "SNE " + vx + ", " + vy;
+        if(instruction instanceof InstructionTable.SetIndex) return "LD I, " + nnn;
+        if(instruction instanceof InstructionTable.JumpOffset) return "JP V0, " + nnn;
+        if(instruction instanceof InstructionTable.Random) return "RND " + vx + ", " + nn;
+        if(instruction instanceof InstructionTable.Draw) return "DRW " + vx + ", " + vy + ", " + (opcode & 0x000F);
+        if(instruction instanceof InstructionTable.SkipIfKey) return "SKP " + vx;
+        if(instruction instanceof InstructionTable.SkipIfNotKey) return "SKNP " + vx;
+        if(instruction instanceof InstructionTable.GetDelay) return "LD " + vx + ", DT";
+        if(instruction instanceof InstructionTable.WaitKey) return "LD " + vx + ", K";
+        if(instruction instanceof InstructionTable.SetDelay) return "LD DT, " + vx;
+        if(instruction instanceof InstructionTable.SetSound) return "LD ST, " + vx;
+        if(instruction instanceof InstructionTable.AddIndex) return "ADD I, " + vx;
+        if(instruction instanceof InstructionTable.Font) return "LD F, " + vx;
+        if(instruction instanceof InstructionTable.BCD) return "LD B, " + vx;
+        if(instruction instanceof InstructionTable.Store) return "LD [I], " + vx;
+        if(instruction instanceof InstructionTable.Load) return "LD " + vx + ", [I]";
+        return "invalid";
+    }
+
+    /**
+     * @return True if the instruction may skip the next one
+     */
+    static boolean isSkip(Instruction instruction){
+        return instruction instanceof InstructionTable.SkipIfEqual
+            || instruction instanceof InstructionTable.SkipIfNotEqual
+            || instruction instanceof InstructionTable.SkipIfRegistersEqual
+            || instruction instanceof InstructionTable.SkipIfRegistersNotEqual
+            || instruction instanceof InstructionTable.SkipIfKey
+            || instruction instanceof InstructionTable.SkipIfNotKey;
+    }
+
+    /**
+     * @return True if control does not go on to the next instruction
+     */
+    private static boolean isEnd(Instruction instruction){
+        return instruction instanceof InstructionTable.Return
+            || instruction instanceof InstructionTable.Exit
+            || instruction instanceof InstructionTable.Invalid;
+    }
+
+    /**
+     * @return Length of the instruction at address, 4 for F000 NNNN, else 2
+     */
+    private int length(int address){
+        return inROM(address) && opcodeAt(address) == 0xF000 ? 4 : 2;
+    }
+
+    private boolean inROM(int address){
+        return address >= CPU.ROM_OFFSET && address + 1 < CPU.ROM_OFFSET + rom.length;
+    }
+
+    private int opcodeAt(int address){
+        return (rom[address - CPU.ROM_OFFSET] << 8 | rom[address + 1 - CPU.ROM_OFFSET]) & 0xFFFF;
+    }
+
+    public static void main(String[] args){
+        if(args.length < 1){
+            System.out.println("Usage: java ROMAnalyzer <rom file>");
+            return;
+        }
+        ROMAnalyzer analyzer = new ROMAnalyzer(ApplicationLoader.getROMFromFile(args[0]));
+        System.out.print(analyzer.disassemble());
+        int code = 0, sprites = 0, data = 0;
+        for(int i = CPU.ROM_OFFSET; i < analyzer.getSize(); i++){
+            if(analyzer.getKind(i) == CODE) code++;
+            else if(analyzer.getKind(i) == SPRITE) sprites++;
+            else if(analyzer.getKind(i) == DATA) data++;
+        }
+        System.out.println("\n" + analyzer.getBlocks().size() + " blocks, " + code + " instructions, "
+                + sprites + " sprite bytes, " + data + " data bytes");
+    }
+}
@@ -0,0 +1,354 @@
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Settings known to suit particular ROMs, keyed by ROM hash
+ * Chip8#loadROM looks the loaded ROM up here, so a known ROM runs with its
+ * own quirks and fused idle loops, and the window with its own clock, keys
+ * and title. Unknown ROMs run as they always have.
+ *
+ * The database is an index file, mapped on the first lookup and searched in
+ * place, so startup reads nothing and a lookup touches a few pages.
+ * Layout (big endian, offsets in bytes):
+ * 0  int MAGIC          4  int VERSION        8 int count
+ * 12 count entries of long ROM hash, int offset of its record, sorted by hash
+ * Records: short cycles per frame, 0 if unknown
+ *          short length, UTF-8 quirk profile id, empty if unknown
+ *          short length, UTF-8 key map, empty if unknown
+ *          byte count, short address of each idle loop
+ *          short length, UTF-8 title
+ *
+ * The index is built from a text file, one ROM per line:
+ * <hash> ipf=<cycles> quirks=<profile id> keys=<16 keys> idle=<addr>,<addr> title=<rest of line>
+ * Every field but the hash may be left out, lines starting with # are comments.
+ * The key map gives the keyboard key for Chip8 keys 0 to F, e.g. x123qweasdzc4rfv.
+ * An idle loop is the address of a loop the ROM spins in while it waits,
+ * closed by a jump back to its first instruction.
+ *
+ * Usage: java ROMDatabase <text file> <index file>
+ *        java ROMDatabase -hash <rom file>...
+ * The second prints a line to start an entry for each ROM
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class ROMDatabase {
+    public static final int MAGIC = 0x43384442;//"C8DB"
+    public static final int VERSION = 1;
+    public static final int HEADER = 12, SLOT = 12;
+    public static final String DEFAULT_FILE = System.getProperty("chip8.romDatabase", "roms.idx");
+
+    private static ROMDatabase defaultDatabase;
+
+    private final File file;
+    private ByteBuffer index;//Mapped on the first lookup, empty if there is no index
+    private int count;
+
+    /**
+     * Settings of one ROM
+     */
+    public static class Entry {
+        private final long hash;
+        private final String title, keyMap;
+        private final int cyclesPerFrame;
+        private final QuirkProfile profile;
+        private final int[] idleLoops;
+
+        Entry(long hash, String title, int cyclesPerFrame, QuirkProfile profile, String keyMap, int[] idleLoops){
+            this.hash = hash; this.title = title; this.cyclesPerFrame = cyclesPerFrame;
+            this.profile = profile; this.keyMap = keyMap; this.idleLoops = idleLoops;
+        }
+
+        /**
+         * @return Hash of the ROM, see ApplicationLoader#hashROM
+         */
+        public long getHash(){
+            return hash;
+        }
+
+        /**
+         * @return Title of the ROM, empty if unknown
+         */
+        public String getTitle(){
+            return title;
+        }
+
+        /**
+         * @return Cycles to run per 60Hz frame, the slowest clock the ROM runs right at, 0 if unknown
+         */
+        public int getCyclesPerFrame(){
+            return cyclesPerFrame;
+        }
+
+        /**
+         * @return Quirks the ROM was written for, or null if unknown
+         */
+        public QuirkProfile getProfile(){
+            return profile;
+        }
+
+        /**
+         * @return Keyboard key of each Chip8 key 0 to F, or null for the usual keys
+         */
+        public String getKeyMap(){
+            return keyMap;
+        }
+
+        /**
+         * @param address An address in memory
+         * @return True if a loop the ROM waits in starts at address
+         */
+        public boolean isIdleLoop(int address){
+            for(int loop : idleLoops)
+                if(loop == address)
+                    return true;
+            return false;
+        }
+    }
+
+    /**
+     * @param file The index file, it need not exist
+     */
+    public ROMDatabase(File file){
+        this.file = file;
+    }
+
+    /**
+     * @return The database in DEFAULT_FILE, set by the property chip8.romDatabase
+     */
+    public static synchronized ROMDatabase getDefault(){
+        if(defaultDatabase == null)
+            defaultDatabase = new ROMDatabase(new File(DEFAULT_FILE));
+        return defaultDatabase;
+    }
+
+    /**
+     * Finds the settings of a ROM, mapping the index if this is the first lookup
+     *
+     * @param hash Hash of the ROM, see ApplicationLoader#hashROM
+     * @return The settings, or null if the ROM is unknown
+     */
+    public synchronized Entry lookup(long hash){
+        if(index == null)
+            open();
+        int low = 0, high = count - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            long found = index.getLong(HEADER + middle * SLOT);
+            if(found < hash)
+                low = middle + 1;
+            else if(found > hash)
+                high = middle - 1;
+            else
+                return read(hash, index.getInt(HEADER + middle * SLOT + 8));
+        }
+        return null;
+    }
+
+    private void open(){
+        index = ByteBuffer.allocate(0);
+        if(!file.exists())
+            return;
+        try{
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try{
+                ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                if(mapped.limit() < HEADER || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION)
+                    System.out.println("Not a ROM database: " + file);
+                else{
+                    index = mapped;
+                    count = mapped.getInt(8);
+                }
+            }
+            finally{
+                raf.close();//The mapping stays valid
+            }
+        }
+        catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    private Entry read(long hash, int offset){
+        ByteBuffer record = index.duplicate();
+        record.position(offset);
+        int cyclesPerFrame = record.getShort() & 0xFFFF;
+        QuirkProfile profile = QuirkProfile.forId(readString(record));
+        String keyMap = readString(record);
+        int[] idleLoops = new int[record.get() & 0xFF];
+        for(int i = 0; i < idleLoops.length; i++)
+            idleLoops[i] = record.getShort() & 0xFFFF;
+        String title = readString(record);
+        return new Entry(hash, title, cyclesPerFrame, profile, keyMap.length() == 16 ? keyMap : null, idleLoops);
+    }
+
+    private static String readString(ByteBuffer record){
+        byte[] bytes = new byte[record.getShort() & 0xFFFF];
+        record.get(bytes);
+        try{
+            return new String(bytes, "UTF-8");
+        }
+        catch(IOException e){
+            throw new IllegalStateException(e);//UTF-8 is always supported
+        }
+    }
+
+    /**
+     * Reads the text form of a database
+     *
+     * @param fileName The text file
+     * @return Its entries, in the order of the file
+     * @throws IOException If the file cannot be read
+     */
+    public static ArrayList<Entry> parse(String fileName) throws IOException{
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        BufferedReader in = new BufferedReader(new FileReader(fileName));
+        try{
+            String line;
+            int number = 0;
+            while((line = in.readLine()) != null){
+                number++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                try{
+                    entries.add(parseLine(line));
+                }
+                catch(IllegalArgumentException e){
+                    System.out.println(fileName + ":" + number + ": " + e.getMessage());
+                }
+            }
+        }
+        finally{
+            in.close();
+        }
+        return entries;
+    }
+
+    private static Entry parseLine(String line){
+        String title = "";
+        int titleStart = line.indexOf("title=");
+        if(titleStart >= 0){
+            title = line.substring(titleStart + 6).trim();
+            line = line.substring(0, titleStart);
+        }
+        String[] fields = line.trim().split("\\s+");
+        long hash = new BigInteger(fields[0], 16).longValue();
+        int cyclesPerFrame = 0;
+        QuirkProfile profile = null;
+        String keyMap = null;
+        int[] idleLoops = new int[0];
+        for(int i = 1; i < fields.length; i++){
+            String field = fields[i];
+            String value = field.substring(field.indexOf('=') + 1);
+            if(field.startsWith("ipf="))
+                cyclesPerFrame = Integer.parseInt(value);
+            else if(field.startsWith("quirks=")){
+                profile = QuirkProfile.forId(value);
+                if(profile == null)
+                    throw new IllegalArgumentException("Unknown quirk profile " + value);
+            }
+            else if(field.startsWith("keys=")){
+                if(value.length() != 16)
+                    throw new IllegalArgumentException("A key map needs 16 keys");
+                keyMap = value;
+            }
+            else if(field.startsWith("idle=")){
+                String[] addresses = value.split(",");
+                idleLoops = new int[addresses.length];
+                for(int a = 0; a < addresses.length; a++)
+                    idleLoops[a] = Integer.decode(addresses[a]);
+            }
+            else
+                throw new IllegalArgumentException("Unknown field " + field);
+        }
+        if(cyclesPerFrame > 0xFFFF || idleLoops.length > 0xFF)
+            throw new IllegalArgumentException("Field out of range");
+        return new Entry(hash, title, cyclesPerFrame, profile, keyMap, idleLoops);
+    }
+
+    /**
+     * Writes entries as an index file
+     *
+     * @param entries The entries, a later entry replaces an earlier one of the same ROM
+     * @param fileName The index file
+     * @return Number of ROMs written
+     * @throws IOException If the file cannot be written
+     */
+    public static int write(ArrayList<Entry> entries, String fileName) throws IOException{
+        ArrayList<Entry> byHash = new ArrayList<Entry>(entries);
+        Collections.sort(byHash, new Comparator<Entry>(){//Stable, so entries of a ROM stay in order
+            public int compare(Entry a, Entry b){
+                return Long.compare(a.hash, b.hash);//Signed, as lookup compares
+            }
+        });
+        ArrayList<Entry> sorted = new ArrayList<Entry>();
+        for(int i = 0; i < byHash.size(); i++)
+            if(i + 1 == byHash.size() || byHash.get(i + 1).hash != byHash.get(i).hash)
+                sorted.add(byHash.get(i));
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(fileName));
+        try{
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            int offset = HEADER + sorted.size() * SLOT;
+            for(Entry entry : sorted){
+                out.writeLong(entry.hash);
+                out.writeInt(offset);
+                offset += recordLength(entry);
+            }
+            for(Entry entry : sorted){
+                out.writeShort(entry.cyclesPerFrame);
+                writeString(out, entry.profile == null ? "" : entry.profile.getId());
+                writeString(out, entry.keyMap == null ? "" : entry.keyMap);
+                out.writeByte(entry.idleLoops.length);
+                for(int loop : entry.idleLoops)
+                    out.writeShort(loop);
+                writeString(out, entry.title);
+            }
+        }
+        finally{
+            out.close();
+        }
+        return sorted.size();
+    }
+
+    private static int recordLength(Entry entry) throws IOException{
+        return 2 + 2 + (entry.profile == null ? 0 : entry.profile.getId().getBytes("UTF-8").length)
+                + 2 + (entry.keyMap == null ? 0 : entry.keyMap.getBytes("UTF-8").length)
+                + 1 + 2 * entry.idleLoops.length + 2 + entry.title.getBytes("UTF-8").length;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException{
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    public static void main(String[] args) throws IOException{
+        if(args.length >= 2 && args[0].equals("-hash")){
+            for(int i = 1; i < args.length; i++)
+                System.out.println(String.format("%016x", ApplicationLoader.hashROM(ApplicationLoader.getROMFromFile(args[i])))
+                        + " title=" + new File(args[i]).getName());
+            return;
+        }
+        if(args.length != 2){
+            System.out.println("Usage: java ROMDatabase <text file> <index file>");
+            System.out.println("       java ROMDatabase -hash <rom file>...");
+            return;
+        }
+        System.out.println("Wrote " + write(parse(args[0]), args[1]) + " ROMs to " + args[1]);
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * Scores a Chip8Environment after every emulated frame
+ * Implementations usually read the score and lives of a game from its
+ * registers or memory through CPU#getRegister and CPU#readMemory
+ * 
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public interface RewardFunction {
+    /**
+     * Called when the environment is reset, before the first frame
+     * 
+     * @param cpu The CPU of the environment
+     */
+    public void reset(CPU cpu);
+    
+    /**
+     * Returns the reward earned during the last frame
+     * 
+     * @param cpu The CPU of the environment
+     * @return The reward of the frame
+     */
+    public double reward(CPU cpu);
+    
+    /**
+     * Returns true if the episode is over
+     * 
+     * @param cpu The CPU of the environment
+     * @return True if the game has ended
+     */
+    public boolean isDone(CPU cpu);
+}
@@ -0,0 +1,15 @@
+/**
+ * Receives a save finishing on the SaveWriter thread
+ * Called after the save was renamed over the old one, or failed, so it should
+ * hand the result over to the UI rather than doing the work itself.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public interface SaveListener {
+    /**
+     * @param fileName Name of the save, without ".sav"
+     * @param written True if the save is on disk, false if writing it failed
+     */
+    public void saveDone(String fileName, boolean written);
+}
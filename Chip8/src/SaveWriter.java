@@ -0,0 +1,132 @@
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes saves on a background thread so neither emulation nor the UI waits
+ * A save is a CPU#fork() taken on the emulation thread between cycles. The
+ * fork shares memory copy-on-write, so taking it is instant and the running
+ * CPU can go on changing its own state while the fork is written out.
+ * ApplicationLoader#writeState writes through a temporary file and renames it,
+ * so a crash during a save never corrupts the previous one.
+ *
+ * Autosaves rotate through a fixed number of slots named
+ * <name>.auto<slot>.sav, so the newest save is never the only one.
+ *
+ * A shutdown hook waits for the queued saves, so a save taken just before
+ * the window is closed is still written.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class SaveWriter implements Runnable {
+    private final LinkedBlockingQueue<Job> jobs = new LinkedBlockingQueue<Job>();
+    private final Thread writer;
+    private final int slots;
+    private int nextSlot;
+    private int unwritten;//Queued or being written, guarded by this
+
+    /**
+     * A snapshot waiting to be written
+     */
+    private static class Job {
+        final CPU snapshot;
+        final String fileName;
+        final SaveListener listener;
+        Job(CPU snapshot, String fileName, SaveListener listener){
+            this.snapshot = snapshot; this.fileName = fileName; this.listener = listener;
+        }
+    }
+
+    /**
+     * Starts the writer thread
+     *
+     * @param slots Number of autosave slots to rotate through
+     */
+    public SaveWriter(int slots){
+        this.slots = Math.max(1, slots);
+        writer = new Thread(this, "SaveWriter");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread("SaveWriter flush"){
+            public void run(){
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Queues a save, call on the emulation thread between cycles
+     *
+     * @param cpu The running CPU, forked here
+     * @param fileName Name of the save, without ".sav"
+     */
+    public void save(CPU cpu, String fileName){
+        save(cpu, fileName, null);
+    }
+
+    /**
+     * Queues a save, call on the emulation thread between cycles
+     *
+     * @param cpu The running CPU, forked here
+     * @param fileName Name of the save, without ".sav"
+     * @param listener Told on the writer thread once the save is written or failed, may be null
+     */
+    public void save(CPU cpu, String fileName, SaveListener listener){
+        synchronized(this){
+            unwritten++;
+        }
+        jobs.add(new Job(cpu.fork(), fileName, listener));
+    }
+
+    /**
+     * Queues a save to the next autosave slot, call on the emulation thread between cycles
+     *
+     * @param cpu The running CPU, forked here
+     * @param name Name the slot number is added to
+     */
+    public void autosave(CPU cpu, String name){
+        save(cpu, name + ".auto" + nextSlot);
+        nextSlot = (nextSlot + 1) % slots;
+    }
+
+    /**
+     * Waits until every queued save is written
+     */
+    public synchronized void flush(){
+        boolean interrupted = false;
+        while(unwritten > 0){
+            try{
+                wait();
+            }
+            catch(InterruptedException e){
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Writes queued saves until interrupted
+     */
+    public void run(){
+        try{
+            while(true){
+                Job job = jobs.take();
+                try{
+                    boolean written = job.snapshot.saveState(job.fileName);
+                    if(job.listener != null)
+                        job.listener.saveDone(job.fileName, written);
+                }
+                finally{
+                    synchronized(this){
+                        unwritten--;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+        catch(InterruptedException e){
+            //Stopped
+        }
+    }
+}
@@ -0,0 +1,264 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scales the packed framebuffer up to the window, with optional effects
+ * Frames may be 64x32 or 128x64, either is scaled to the whole output.
+ * NEAREST repeats each pixel. SCALE2X first doubles the screen with the EPX
+ * rules, which round off diagonal edges, then repeats pixels from there.
+ * EPX works on whole pixels, so each pixel and its four neighbours form a
+ * 5 bit index into a table of the four pixels it becomes.
+ *
+ * With phosphor on, a pixel that turns off fades over the next few frames
+ * instead of vanishing, which hides the flicker of sprites being erased and
+ * redrawn with XOR. The fade is per rendered frame.
+ *
+ * Large outputs are split into stripes of rows scaled in parallel on a fork
+ * join pool. Output rows from the same source row are copied, not recomputed.
+ * Nothing is allocated per frame unless the output size changes.
+ *
+ * Usage: java ScreenFilter <rom file> [width height]
+ * Measures frames per second at the given size, 3840x2160 by default
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class ScreenFilter {
+    public static final int NEAREST = 0, SCALE2X = 1;
+    public static final int PHOSPHOR_DECAY = 160;//Brightness kept per frame, out of 256
+    public static final int PARALLEL_PIXELS = 1 << 19;//Smaller outputs are scaled on the calling thread
+    private static final int[] EPX = new int[32];
+    static{
+        //Index: P << 4 | A << 3 | B << 2 | C << 1 | D, A above, B right, C left, D below
+        //Result: bit 3 top left, bit 2 top right, bit 1 bottom left, bit 0 bottom right
+        for(int i = 0; i < 32; i++){
+            int p = i >> 4 & 1, a = i >> 3 & 1, b = i >> 2 & 1, c = i >> 1 & 1, d = i & 1;
+            int e0 = c == a && c != d && a != b ? a : p;
+            int e1 = a == b && a != c && b != d ? b : p;
+            int e2 = d == c && d != b && c != a ? c : p;
+            int e3 = b == d && b != a && d != c ? d : p;
+            EPX[i] = e0 << 3 | e1 << 2 | e2 << 1 | e3;
+        }
+    }
+    private static final int[] GRAY = new int[256];
+    static{
+        for(int i = 0; i < 256; i++)
+            GRAY[i] = i << 16 | i << 8 | i;
+    }
+
+    private final ForkJoinPool pool;
+    private final Stripe[] stripes;
+    private final Scale root = new Scale();
+    private volatile int filter = NEAREST;
+    private volatile boolean phosphor;
+
+    //Screen after the filter and phosphor, before scaling
+    private final int[] levels = new int[CPU.HIRES_X_DIM * 2 * CPU.HIRES_Y_DIM * 2];
+    private final int[] source = new int[levels.length];
+    private int sourceWidth, sourceHeight;
+    private int frameWidth, frameHeight;//Size of the frame being rendered
+
+    //Output of the frame being rendered
+    private int[] dest;
+    private int width, height;
+    private int[] xMap = new int[0];//Source column of each output column
+
+    /**
+     * @param pool Pool to scale large outputs on
+     */
+    public ScreenFilter(ForkJoinPool pool){
+        this.pool = pool;
+        stripes = new Stripe[pool.getParallelism() * 2];
+        for(int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe(i);
+    }
+
+    /**
+     * @param filter NEAREST or SCALE2X
+     */
+    public void setFilter(int filter){
+        this.filter = filter;
+    }
+
+    /**
+     * @return NEAREST or SCALE2X
+     */
+    public int getFilter(){
+        return filter;
+    }
+
+    /**
+     * @param phosphor True to fade pixels out over a few frames
+     */
+    public void setPhosphor(boolean phosphor){
+        this.phosphor = phosphor;
+    }
+
+    /**
+     * @return True if pixels fade out over a few frames
+     */
+    public boolean isPhosphor(){
+        return phosphor;
+    }
+
+    /**
+     * Renders a frame
+     *
+     * @param frame Packed frame, as CPU#copyFramebuffer
+     * @param frameWidth Width of the frame, CPU#getWidth
+     * @param frameHeight Height of the frame, CPU#getHeight
+     * @param dest RGB pixels of the output, row by row
+     * @param width Width of the output
+     * @param height Height of the output
+     */
+    public synchronized void render(byte[] frame, int frameWidth, int frameHeight, int[] dest, int width, int height){
+        int scale = filter == SCALE2X ? 2 : 1;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        if(sourceWidth != frameWidth * scale || sourceHeight != frameHeight * scale || this.width != width){
+            sourceWidth = frameWidth * scale;
+            sourceHeight = frameHeight * scale;
+            xMap = new int[width];
+            for(int x = 0; x < width; x++)
+                xMap[x] = x * sourceWidth / width;
+            for(int i = 0; i < levels.length; i++)
+                levels[i] = 0;//Nothing to fade from at a new size
+        }
+        this.dest = dest;
+        this.width = width;
+        this.height = height;
+
+        if(scale == 2)
+            scale2x(frame);
+        else
+            for(int y = 0; y < frameHeight; y++)
+                for(int x = 0; x < frameWidth; x++)
+                    light(y * frameWidth + x, pixel(frame, x, y));
+
+        if((long)width * height < PARALLEL_PIXELS)
+            scaleRows(0, height);
+        else{
+            root.reinitialize();
+            pool.invoke(root);
+        }
+        this.dest = null;
+    }
+
+    /**
+     * Doubles the screen into levels with the EPX table
+     */
+    private void scale2x(byte[] frame){
+        int w = frameWidth * 2;
+        for(int y = 0; y < frameHeight; y++)
+            for(int x = 0; x < frameWidth; x++){
+                int index = pixel(frame, x, y) << 4 | pixel(frame, x, y - 1) << 3
+                        | pixel(frame, x + 1, y) << 2 | pixel(frame, x - 1, y) << 1 | pixel(frame, x, y + 1);
+                int out = EPX[index];
+                int i = 2 * y * w + 2 * x;
+                light(i, out >> 3 & 1);
+                light(i + 1, out >> 2 & 1);
+                light(i + w, out >> 1 & 1);
+                light(i + w + 1, out & 1);
+            }
+    }
+
+    /**
+     * Sets a source pixel on, or off and fading if phosphor is on
+     */
+    private void light(int i, int on){
+        int level = on != 0 ? 255 : phosphor ? levels[i] * PHOSPHOR_DECAY >> 8 : 0;
+        levels[i] = level;
+        source[i] = GRAY[level];
+    }
+
+    /**
+     * @return 1 if the pixel at x, y is on, 0 if off or outside the screen
+     */
+    private int pixel(byte[] frame, int x, int y){
+        if(x < 0 || y < 0 || x >= frameWidth || y >= frameHeight)
+            return 0;
+        return frame[(y * frameWidth + x) >> 3] >> (7 - (x & 7)) & 1;
+    }
+
+    /**
+     * Scales output rows from to to from the source
+     */
+    private void scaleRows(int from, int to){
+        int[] dest = this.dest;
+        int[] xMap = this.xMap;
+        int previous = -1;
+        for(int y = from; y < to; y++){
+            int sy = y * sourceHeight / height;
+            int row = y * width;
+            if(sy == previous)//Same source row as the row above
+                System.arraycopy(dest, row - width, dest, row, width);
+            else{
+                int base = sy * sourceWidth;
+                for(int x = 0; x < width; x++)
+                    dest[row + x] = source[base + xMap[x]];
+            }
+            previous = sy;
+        }
+    }
+
+    /**
+     * Scales a stripe of rows, reused between frames
+     */
+    private class Stripe extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+
+        Stripe(int index){
+            this.index = index;
+        }
+
+        protected void compute(){
+            scaleRows(index * height / stripes.length, (index + 1) * height / stripes.length);
+        }
+    }
+
+    /**
+     * Forks every stripe and waits for them
+     */
+    private class Scale extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected void compute(){
+            for(int i = 0; i < stripes.length; i++)
+                stripes[i].reinitialize();
+            invokeAll(stripes);
+        }
+    }
+
+    public static void main(String[] args){
+        if(args.length < 1){
+            System.out.println("Usage: java ScreenFilter <rom file> [width height]");
+            return;
+        }
+        int width = args.length >= 3 ? Integer.parseInt(args[1]) : 3840;
+        int height = args.length >= 3 ? Integer.parseInt(args[2]) : 2160;
+        CPU cpu = new Chip8();
+        cpu.setSoundEnabled(false);
+        cpu.loadROM(args[0]);
+        ScreenFilter screen = new ScreenFilter(new ForkJoinPool());
+        byte[] frame = new byte[CPU.MAX_FRAME_BYTES];
+        int[] dest = new int[width * height];
+
+        for(int filter = NEAREST; filter <= SCALE2X; filter++){
+            screen.setFilter(filter);
+            screen.setPhosphor(true);
+            long start = System.nanoTime();
+            int frames = 0;
+            while(System.nanoTime() - start < 2000000000L){
+                for(int i = 0; i < 1000; i++)
+                    cpu.emulateCycle();
+                cpu.copyFramebuffer(frame);
+                screen.render(frame, cpu.getWidth(), cpu.getHeight(), dest, width, height);
+                frames++;
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println((filter == NEAREST ? "nearest" : "scale2x") + " with phosphor at " + width + "x" + height
+                    + ": " + (long)(frames * 1e9 / elapsed) + " frames/s");
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Publishes every frame into a memory mapped file for other processes
+ * Readers map the same file and read frames in place, without sockets or
+ * copies, and can press keys by writing to the input field of the region.
+ *
+ * Layout (little endian, offsets in bytes):
+ * 0  int MAGIC          4  int VERSION
+ * 8  int width          12 int height, of the current frame, 64x32 or 128x64
+ * 16 long sequence      24 long frame number
+ * 32 long cycle count   40 long frame hash
+ * 48 int key state, bit n set if key n is pressed
+ * 52 int input, written by readers, bit n set to hold key n down
+ * 64 width * height / 8 bytes of packed pixels, as CPU#copyFramebuffer,
+ *    in a region of MAX_FRAME_BYTES
+ *
+ * Frames are published with a seqlock: the sequence is made odd before the
+ * frame is written and even after. A reader copies what it needs, then
+ * retries if the sequence was odd or changed meanwhile. Both sides put a full
+ * fence between the steps, see fullFence, so the frame stores cannot pass the
+ * sequence stores and the frame loads cannot pass the sequence loads, also on
+ * weakly ordered CPUs such as AArch64. Readers in other languages need the
+ * same fences, e.g. atomic_thread_fence(memory_order_seq_cst) in C.
+ * The input field is polled every INPUT_POLL_MS and changes go to CPU#setKey.
+ *
+ * Usage: java SharedFramebuffer <shared file>
+ * Prints every new frame in the file, as an example reader
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class SharedFramebuffer implements FrameListener, Runnable {
+    public static final int MAGIC = 0x43384642;//"C8FB"
+    public static final int VERSION = 2;
+    public static final int SEQUENCE = 16, FRAME_NUMBER = 24, CYCLE = 32, HASH = 40;
+    public static final int KEYS = 48, INPUT = 52, FRAME = 64;
+    public static final int SIZE = FRAME + CPU.MAX_FRAME_BYTES;
+    public static final int INPUT_POLL_MS = 1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer region;
+    private final byte[] frame = new byte[CPU.MAX_FRAME_BYTES];
+    private final CPU cpu;
+    private final Thread poller;
+    private volatile boolean running = true;
+    private static volatile int fence;//Written then read by fullFence
+    private long sequence, frameNumber;
+    private int input;//Input last applied to the CPU
+
+    /**
+     * Maps the file, creating it if needed, and starts polling it for input
+     *
+     * @param fileName Name of the shared file, e.g. in /dev/shm
+     * @param cpu The CPU receiving key input
+     * @throws IOException If the file cannot be mapped
+     */
+    public SharedFramebuffer(String fileName, CPU cpu) throws IOException{
+        this.cpu = cpu;
+        file = new RandomAccessFile(fileName, "rw");
+        file.setLength(SIZE);
+        region = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        region.putInt(0, MAGIC);
+        region.putInt(4, VERSION);
+        region.putInt(INPUT, 0);
+        frameReady(cpu);//Publish the current screen
+
+        poller = new Thread(this, "SharedFramebuffer");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /**
+     * Publishes the frame, called on the emulation thread
+     * @see FrameListener#frameReady(CPU)
+     */
+    public synchronized void frameReady(CPU cpu){
+        int width = cpu.getWidth(), height = cpu.getHeight();
+        cpu.copyFramebuffer(frame);
+        int keys = 0;
+        for(int i = 0; i < 16; i++)
+            if(cpu.getKey(i) != 0)
+                keys |= 1 << i;
+
+        region.putLong(SEQUENCE, ++sequence);//Odd, readers wait
+        fullFence();
+        region.putInt(8, width);
+        region.putInt(12, height);
+        region.putLong(FRAME_NUMBER, ++frameNumber);
+        region.putLong(CYCLE, cpu.getCycleCount());
+        region.putLong(HASH, cpu.getFrameHash());
+        region.putInt(KEYS, keys);
+        region.position(FRAME);
+        region.put(frame, 0, width * height / 8);
+        fullFence();
+        region.putLong(SEQUENCE, ++sequence);//Even, the frame is complete
+    }
+
+    /**
+     * Orders every load and store before the call before every one after it
+     * A volatile write alone is only a release on AArch64, where HotSpot emits
+     * stlr, and a volatile read only an acquire (ldar). A volatile write followed
+     * by a volatile read needs a StoreLoad barrier between them, which with the
+     * release before and the acquire after makes a full fence, as HotSpot
+     * implements volatiles on x86 and AArch64.
+     * Java 7 has no explicit fences, which Unsafe and VarHandle only gained later.
+     *
+     * @return The field, so the read is used
+     */
+    private static int fullFence(){
+        fence = 0;
+        return fence;
+    }
+
+    /**
+     * Polls the input field and presses or releases the keys that changed
+     */
+    public void run(){
+        while(running){
+            int next = region.getInt(INPUT);
+            int changed = next ^ input;
+            for(int i = 0; changed != 0; i++, changed >>>= 1)
+                if((changed & 1) != 0)
+                    cpu.setKey(i, next >> i & 1);
+            input = next;
+            try{
+                Thread.sleep(INPUT_POLL_MS);
+            }
+            catch(InterruptedException e){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops polling for input and closes the file, readers keep the last frame
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    public void close() throws IOException{
+        running = false;
+        poller.interrupt();
+        try{
+            poller.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        region.force();
+        file.close();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException{
+        if(args.length < 1){
+            System.out.println("Usage: java SharedFramebuffer <shared file>");
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(args[0], "r");
+        MappedByteBuffer region = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        if(region.getInt(0) != MAGIC || region.getInt(4) != VERSION){
+            System.out.println("Not a shared framebuffer");
+            file.close();
+            return;
+        }
+
+        byte[] pixels = new byte[CPU.MAX_FRAME_BYTES];
+        long lastFrame = -1;
+        while(true){
+            long before = region.getLong(SEQUENCE);
+            fullFence();
+            long number = region.getLong(FRAME_NUMBER);
+            long cycle = region.getLong(CYCLE);
+            int width = region.getInt(8), height = region.getInt(12);
+            region.position(FRAME);
+            region.get(pixels);
+            fullFence();
+            long after = region.getLong(SEQUENCE);
+            if((before & 1) != 0 || before != after || number == lastFrame){
+                Thread.sleep(1);//Being written, or nothing new
+                continue;
+            }
+            lastFrame = number;
+
+            StringBuilder out = new StringBuilder();
+            out.append("frame ").append(number).append(" cycle ").append(cycle).append('\n');
+            for(int y = 0; y < height; y++){
+                for(int x = 0; x < width; x++)
+                    out.append((pixels[(y * width + x) >> 3] & 0x80 >> (x & 7)) != 0 ? '#' : '.');
+                out.append('\n');
+            }
+            System.out.print(out);
+        }
+    }
+}
@@ -1,4 +1,7 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 
 /**
@@ -6,16 +9,42 @@ import java.io.Serializable;
  * Implements seriablizable so that it can written to a file
  * Can only be used by a Chip8 object
  * 
+ * Memory is split into pages that are shared copy-on-write between a State
+ * and its forks, so forking only copies the registers and the window.
+ * A page is copied the first time either side writes to it. Memory is
+ * MEMORY_SIZE until a ROM needs the XO-CHIP address space, the pages added
+ * then all share one zero page until they are written, so it costs nothing.
+ * 
+ * The window holds both XO-CHIP planes packed two longs per row, bit 63 of
+ * the first long is x = 0. In the 64x32 mode only the first long of a row is
+ * used, in the 128x64 hi-res mode both are, so drawing a sprite row is one or
+ * two XORs and scrolling shifts or moves whole words.
+ * 
+ * Each page also caches the Instructions decoded from it. A decoded entry
+ * may cover up to DECODE_SPAN bytes of its page, so a write clears the
+ * entries that start up to DECODE_SPAN - 1 bytes before it. Pages holding
+ * longer entries, such as compiled blocks, are cleared entirely on a write.
+ * 
  * @author David Watkins
  * @UNI: djw2146
  */
 public class State implements Serializable{
-    private static final long serialVersionUID = 1L;
-    private boolean[][] window;
+    //2 since memory became pages and the window packed longs, older saves are refused
+    private static final long serialVersionUID = 2L;
+    private long[] window;//PLANES * HIRES_Y_DIM rows of ROW_WORDS longs
+    private static final int ROW_WORDS = CPU.HIRES_X_DIM / 64;
+    private boolean hires;//128x64 mode
+    private int planeMask = 1;//Planes drawn to, cleared and scrolled, bit n is plane n
     private boolean drawFlag;//Whether or not to redraw drawFlag
     
     //Memory control variables
-    private int[] memory;
+    public static final int PAGE_SIZE = 256;
+    private int[][] pages;//getMemorySize() / PAGE_SIZE pages of PAGE_SIZE values
+    private static final int[] ZERO_PAGE = new int[PAGE_SIZE];//Never written, pages using it are not owned
+    private boolean[] ownedPages;//False if the page may be shared with a fork
+    public static final int DECODE_SPAN = 6;
+    private transient Instruction[][] decoded;//Decoded instructions per page, shared like pages
+    private transient boolean[] wideDecoded;//True if a page caches entries longer than DECODE_SPAN
     private int indexReg;//Has values 0x000 to 0xFFF
     private int programCounter;//Has values 0x000 to 0xFFF
     
@@ -29,6 +58,30 @@ public class State implements Serializable{
     private int[] V;//Stores variables to be used by the processor
     
     private int delayTimer, soundTimer;
+    private int[] flags;//SUPER-CHIP RPL user flags, FX75 and FX85
+    private int[] audioPattern;//XO-CHIP audio pattern, F002
+    private int pitch = 64;//XO-CHIP pitch, FX3A
+    
+    private long cycleCount;//Number of cycles emulated since the ROM was loaded
+    private long randomSeed;//State of the generator used by CXNN
+    private long romHash;//Hash of the loaded ROM, see ApplicationLoader#hashROM
+    private long frameHash;//XOR of PIXEL_KEYS of every pixel that is on
+    private transient MemoryHeatmap heatmap;//Counts memory accesses when set, not shared with forks
+    
+    //Random key per pixel, fixed so frame hashes can be compared between runs
+    //Plane 0 of the 64x32 mode comes first, so its hashes are the same as before planes
+    private static final int LORES_PIXELS = CPU.X_DIM * CPU.Y_DIM;
+    private static final int HIRES_PIXELS = CPU.HIRES_X_DIM * CPU.HIRES_Y_DIM;
+    private static final long[] PIXEL_KEYS = new long[CPU.PLANES * (LORES_PIXELS + HIRES_PIXELS)];
+    static{
+        long seed = 0x43484950382D3821L;
+        for(int i = 0; i < PIXEL_KEYS.length; i++){
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            PIXEL_KEYS[i] = z ^ (z >>> 31);
+        }
+    }
     
     /**
      * Creates a new State object
@@ -39,11 +92,64 @@ public class State implements Serializable{
         key = new int[16];
         V = new int[16];
         
-        window = new boolean[CPU.X_DIM][CPU.Y_DIM];
-        for(int x = 0; x < CPU.X_DIM; x++)
-            for(int y = 0; y < CPU.Y_DIM; y++)
-                window[x][y] = false;
-        memory = new int[CPU.MEMORY_SIZE];
+        window = new long[CPU.PLANES * CPU.HIRES_Y_DIM * ROW_WORDS];
+        flags = new int[16];
+        audioPattern = new int[16];
+        pages = new int[CPU.MEMORY_SIZE / PAGE_SIZE][PAGE_SIZE];
+        ownedPages = new boolean[pages.length];
+        Arrays.fill(ownedPages, true);
+        decoded = new Instruction[pages.length][];
+        wideDecoded = new boolean[pages.length];
+        randomSeed = System.nanoTime();
+    }
+    
+    /**
+     * Creates a copy of other that shares its memory pages
+     * @param other The State to copy
+     */
+    private State(State other){
+        window = other.window.clone();
+        hires = other.hires;
+        planeMask = other.planeMask;
+        drawFlag = other.drawFlag;
+        pages = other.pages.clone();
+        ownedPages = new boolean[pages.length];
+        Arrays.fill(other.ownedPages, false);//Both sides now copy before writing
+        decoded = other.decoded.clone();
+        wideDecoded = other.wideDecoded.clone();
+        indexReg = other.indexReg;
+        programCounter = other.programCounter;
+        stack = other.stack.clone();
+        stackPointer = other.stackPointer;
+        key = other.key.clone();
+        V = other.V.clone();
+        delayTimer = other.delayTimer;
+        soundTimer = other.soundTimer;
+        flags = other.flags.clone();
+        audioPattern = other.audioPattern.clone();
+        pitch = other.pitch;
+        cycleCount = other.cycleCount;
+        randomSeed = other.randomSeed;
+        romHash = other.romHash;
+        frameHash = other.frameHash;
+    }
+    
+    /**
+     * Returns an independent copy of this State
+     * Memory is shared until either State writes to it, so this is cheap
+     * @return The copy
+     */
+    public State fork(){
+        return new State(this);
+    }
+    
+    /**
+     * The decode cache is not saved, so it is recreated when a State is read
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        decoded = new Instruction[pages.length][];
+        wideDecoded = new boolean[pages.length];
     }
 
     /**
@@ -54,6 +160,18 @@ public class State implements Serializable{
         programCounter += i;
     }
     
+    /**
+     * Returns how far a skip moves the program counter
+     * XO-CHIP skips the whole of a 4 byte F000 NNNN
+     * The next instruction is read wrapped around memory, so a skip at its end does not fail
+     * @return 6 if the next instruction is F000 NNNN, else 4
+     */
+    public int skipLength() {
+        int mask = getMemorySize() - 1;//Memory sizes are powers of two
+        int next = programCounter + 2;
+        return peekMemAddr(next & mask) == 0xF0 && peekMemAddr((next + 1) & mask) == 0 ? 6 : 4;
+    }
+    
     /**
      * Sets the initial state of the processor and memory
      * Various values of the processor are defined in the documentation
@@ -64,6 +182,8 @@ public class State implements Serializable{
         stackPointer = 0;// Reset stack pointer
 
         // Clear display
+        hires = false;
+        planeMask = 1;
         clearScreen();
 
         // Clear stack
@@ -73,17 +193,30 @@ public class State implements Serializable{
             V[i] = 0;
         }
 
-        // Clear memory
-        for(int i = 0; i < 4096; i++)
-            memory[i] = 0;
+        // Clear memory, shared pages are replaced rather than copied
+        setMemorySize(CPU.MEMORY_SIZE);
+        for(int i = 0; i < pages.length; i++){
+            if(ownedPages[i])
+                Arrays.fill(pages[i], 0);
+            else
+                pages[i] = new int[PAGE_SIZE];
+            ownedPages[i] = true;
+            decoded[i] = null;
+            wideDecoded[i] = false;
+        }
                         
         // Load fontset
         for(int i = 0; i < CPU.CHIP8_FONTSET.length; i++)
-            memory[i] = CPU.CHIP8_FONTSET[i];       
+            setMemAddr(i, CPU.CHIP8_FONTSET[i]);       
+        for(int i = 0; i < CPU.BIG_FONTSET.length; i++)
+            setMemAddr(CPU.BIG_FONT_OFFSET + i, CPU.BIG_FONTSET[i]);
 
-        // Reset timers
+        // Reset timers and sound
         delayTimer = 0;
         soundTimer = 0;
+        Arrays.fill(audioPattern, 0);
+        pitch = 64;
+        cycleCount = 0;
 
         // Clear screen once
         drawFlag = true;
@@ -93,9 +226,112 @@ public class State implements Serializable{
      * Clears the screen by setting all to false
      */
     public void clearScreen(){
-        for(int i = 0; i < CPU.X_DIM; ++i)
-            for(int j = 0; j < CPU.Y_DIM; j++)
-                window[i][j] = false;
+        Arrays.fill(window, 0);
+        frameHash = 0;
+    }
+    
+    /**
+     * Clears the selected planes, as 00E0
+     */
+    public void clearPlanes(){
+        if(planeMask == (1 << CPU.PLANES) - 1){
+            clearScreen();
+            return;
+        }
+        for(int plane = 0; plane < CPU.PLANES; plane++)
+            if((planeMask & 1 << plane) != 0)
+                Arrays.fill(window, row(plane, 0), row(plane + 1, 0), 0);
+        recomputeFrameHash();
+    }
+    
+    /**
+     * @return True in the 128x64 mode
+     */
+    public boolean isHires(){
+        return hires;
+    }
+    
+    /**
+     * Switches between the 64x32 and 128x64 modes, which clears the screen
+     * @param hires True for 128x64
+     */
+    public void setHires(boolean hires){
+        this.hires = hires;
+        clearScreen();
+    }
+    
+    /**
+     * @return Width of the window in the current mode
+     */
+    public int getWidth(){
+        return hires ? CPU.HIRES_X_DIM : CPU.X_DIM;
+    }
+    
+    /**
+     * @return Height of the window in the current mode
+     */
+    public int getHeight(){
+        return hires ? CPU.HIRES_Y_DIM : CPU.Y_DIM;
+    }
+    
+    /**
+     * @return Planes drawn to, bit n is plane n
+     */
+    public int getPlaneMask(){
+        return planeMask;
+    }
+    
+    /**
+     * @param planeMask Planes to draw to, bit n is plane n
+     */
+    public void setPlaneMask(int planeMask){
+        this.planeMask = planeMask;
+    }
+    
+    /**
+     * @return Index in window of the first long of row y of plane
+     */
+    private static int row(int plane, int y){
+        return (plane * CPU.HIRES_Y_DIM + y) * ROW_WORDS;
+    }
+    
+    /**
+     * @return Index in PIXEL_KEYS of the first pixel of plane in the current mode
+     */
+    private int keyBase(int plane){
+        return hires ? CPU.PLANES * LORES_PIXELS + plane * HIRES_PIXELS : plane * LORES_PIXELS;
+    }
+    
+    /**
+     * Returns a hash of the window that is updated whenever a pixel changes
+     * Equal windows always have equal hashes, a blank window hashes to 0
+     * @return Hash of the window
+     */
+    public long getFrameHash() {
+        return frameHash;
+    }
+    
+    /**
+     * Rebuilds the frame hash from the window
+     * Needed for states saved before the hash existed
+     */
+    public void recomputeFrameHash() {
+        frameHash = 0;
+        int words = getWidth() / 64;
+        for(int plane = 0; plane < CPU.PLANES; plane++)
+            for(int y = 0; y < getHeight(); y++)
+                for(int w = 0; w < words; w++)
+                    hashWord(window[row(plane, y) + w], keyBase(plane) + y * getWidth() + w * 64);
+    }
+    
+    /**
+     * Toggles the keys of the pixels set in bits in the frame hash
+     * @param bits Pixels of a long of the window, bit 63 first
+     * @param keys Index in PIXEL_KEYS of the pixel of bit 63
+     */
+    private void hashWord(long bits, int keys) {
+        for(; bits != 0; bits &= bits - 1)
+            frameHash ^= PIXEL_KEYS[keys + 63 - Long.numberOfTrailingZeros(bits)];
     }
 
     /**
@@ -110,8 +346,12 @@ public class State implements Serializable{
      * @return The opcode
      */
     public int getOpcode(){
+        if(heatmap != null){//Counted as a fetch, not as reads
+            heatmap.fetches[programCounter]++;
+            heatmap.fetches[programCounter + 1]++;
+        }
         //Takes the first program from memory, shifts it 8 bits, and then appends the next program
-        return memory[programCounter] << 8 | memory[programCounter + 1];
+        return peekMemAddr(programCounter) << 8 | peekMemAddr(programCounter + 1);
     }
 
     /**
@@ -136,6 +376,21 @@ public class State implements Serializable{
     public int popFromStack(){
         return stack[--stackPointer];
     }
+    
+    /**
+     * @param level Level of the stack, below getStackPointer()
+     * @return Address saved at that level
+     */
+    public int getStack(int level){
+        return stack[level];
+    }
+
+    /**
+     * @return Number of addresses on the stack
+     */
+    public int getStackPointer(){
+        return stackPointer;
+    }
 
     /**
      * @return Program Counter
@@ -183,30 +438,179 @@ public class State implements Serializable{
         return indexReg;
     }
 
+    /**
+     * @return Number of addresses in memory
+     */
+    public int getMemorySize() {
+        return pages.length * PAGE_SIZE;
+    }
+    
+    /**
+     * Grows or shrinks memory, pages that are added are blank
+     * @param size New number of addresses, a multiple of PAGE_SIZE
+     */
+    public void setMemorySize(int size) {
+        int count = size / PAGE_SIZE;
+        int old = pages.length;
+        if(count == old)
+            return;
+        pages = Arrays.copyOf(pages, count);
+        ownedPages = Arrays.copyOf(ownedPages, count);
+        decoded = Arrays.copyOf(decoded, count);
+        wideDecoded = Arrays.copyOf(wideDecoded, count);
+        for(int i = old; i < count; i++)
+            pages[i] = ZERO_PAGE;//Copied on the first write, as a shared page
+    }
+
     /**
      * @param address Address to be read from memory    
      * @return Value of memory at that address
      */
     public int getMemAddr(int address) {
-        return memory[address];
+        if(heatmap != null)
+            heatmap.reads[address]++;
+        return pages[address >> 8][address & 0xFF];
+    }
+    
+    /**
+     * Reads memory without counting the read in the heatmap, for debuggers and decoders
+     * @param address Address to be read from memory
+     * @return Value of memory at that address
+     */
+    public int peekMemAddr(int address) {
+        return pages[address >> 8][address & 0xFF];
     }
 
     /**
      * @param x X position in window
      * @param y Y position in window
-     * @return The value of window at x,y
+     * @return True if the pixel at x,y is on in any plane
      */
     public boolean getWindowPos(int x, int y) {
-        return window[x][y];
+        int i = (y * ROW_WORDS) + (x >> 6);
+        return ((window[i] | window[i + row(1, 0)]) << x) < 0;//Moves pixel x into the sign bit
+    }
+    
+    /**
+     * @param plane Plane of the window
+     * @param y Row of the window
+     * @param word 0 for x = 0 to 63, 1 for x = 64 to 127
+     * @return 64 pixels of the row packed into a long, bit 63 is the leftmost
+     */
+    public long getWindowWord(int plane, int y, int word) {
+        return window[row(plane, y) + word];
     }
 
     /**
      * @param x X position in window
      * @param y Y position in window
-     * @param val New value of window at x,y
+     * @param val New value of plane 0 of window at x,y
      */
     public void setWindowPos(int x, int y, boolean val) {
-        window[x][y] = val;
+        int i = row(0, y) + (x >> 6);
+        long bit = Long.MIN_VALUE >>> x;
+        if(((window[i] & bit) != 0) != val){//Toggling a pixel toggles its key in the hash
+            frameHash ^= PIXEL_KEYS[keyBase(0) + y * getWidth() + x];
+            window[i] ^= bit;
+        }
+    }
+    
+    /**
+     * XORs a row of sprite pixels into a plane, pixels past the right edge are clipped
+     * @param plane Plane to draw to
+     * @param x X position of the leftmost pixel, less than getWidth()
+     * @param y Row of the window, less than getHeight()
+     * @param bits Pixels to flip, bit 63 is at x
+     * @return True if any pixel was turned off
+     */
+    public boolean drawRow(int plane, int x, int y, long bits) {
+        int i = row(plane, y) + (x >> 6);
+        int keys = keyBase(plane) + y * getWidth() + (x & ~63);
+        int shift = x & 63;
+        boolean collision = xorWord(i, bits >>> shift, keys);
+        if(shift != 0 && (x >> 6) + 1 < getWidth() / 64)//Spills into the next long
+            collision |= xorWord(i + 1, bits << (64 - shift), keys + 64);
+        return collision;
+    }
+    
+    /**
+     * XORs a row of sprite pixels into a plane, pixels past the right edge wrap to the left
+     * @param plane Plane to draw to
+     * @param x X position of the leftmost pixel, less than getWidth()
+     * @param y Row of the window, less than getHeight()
+     * @param bits Pixels to flip, bit 63 is at x
+     * @return True if any pixel was turned off
+     */
+    public boolean drawRowWrapped(int plane, int x, int y, long bits) {
+        int words = getWidth() / 64;
+        int keys = keyBase(plane) + y * getWidth();
+        if(words == 1)
+            return xorWord(row(plane, y), Long.rotateRight(bits, x), keys);
+        int word = x >> 6, next = (word + 1) % words;
+        int shift = x & 63;
+        boolean collision = xorWord(row(plane, y) + word, bits >>> shift, keys + word * 64);
+        if(shift != 0)
+            collision |= xorWord(row(plane, y) + next, bits << (64 - shift), keys + next * 64);
+        return collision;
+    }
+
+    private boolean xorWord(int i, long bits, int keys) {
+        long old = window[i];
+        window[i] = old ^ bits;
+        hashWord(bits, keys);
+        return (old & bits) != 0;
+    }
+    
+    /**
+     * Scrolls the selected planes down, rows scrolled in are blank
+     * @param n Number of rows
+     */
+    public void scrollDown(int n) {
+        n = Math.min(n, getHeight());
+        for(int plane = 0; plane < CPU.PLANES; plane++)
+            if((planeMask & 1 << plane) != 0){
+                int top = row(plane, 0);
+                System.arraycopy(window, top, window, top + n * ROW_WORDS, (getHeight() - n) * ROW_WORDS);
+                Arrays.fill(window, top, top + n * ROW_WORDS, 0);
+            }
+        recomputeFrameHash();
+    }
+    
+    /**
+     * Scrolls the selected planes up, rows scrolled in are blank
+     * @param n Number of rows
+     */
+    public void scrollUp(int n) {
+        n = Math.min(n, getHeight());
+        for(int plane = 0; plane < CPU.PLANES; plane++)
+            if((planeMask & 1 << plane) != 0){
+                int top = row(plane, 0);
+                System.arraycopy(window, top + n * ROW_WORDS, window, top, (getHeight() - n) * ROW_WORDS);
+                Arrays.fill(window, row(plane, getHeight() - n), row(plane, getHeight()), 0);
+            }
+        recomputeFrameHash();
+    }
+    
+    /**
+     * Scrolls the selected planes sideways, columns scrolled in are blank
+     * @param n Number of columns, from 1 to 63, positive to the right
+     */
+    public void scrollSideways(int n) {
+        int words = getWidth() / 64;
+        for(int plane = 0; plane < CPU.PLANES; plane++){
+            if((planeMask & 1 << plane) == 0)
+                continue;
+            for(int y = 0; y < getHeight(); y++){
+                int i = row(plane, y);
+                if(n > 0)
+                    for(int w = words - 1; w >= 0; w--)
+                        window[i + w] = window[i + w] >>> n | (w > 0 ? window[i + w - 1] << (64 - n) : 0);
+                else
+                    for(int w = 0; w < words; w++)
+                        window[i + w] = window[i + w] << -n | (w + 1 < words ? window[i + w + 1] >>> (64 + n) : 0);
+            }
+        }
+        recomputeFrameHash();
     }
 
     /**
@@ -243,7 +647,123 @@ public class State implements Serializable{
      * @param val New value of memory address
      */
     public void setMemAddr(int address, int val) {
-        memory[address] = val;
+        if(heatmap != null)
+            heatmap.writes[address]++;
+        int page = address >> 8;
+        if(!ownedPages[page]){//Copy on write, the shared decode cache is left to the other side
+            pages[page] = pages[page].clone();
+            ownedPages[page] = true;
+            decoded[page] = null;
+            wideDecoded[page] = false;
+        }
+        int offset = address & 0xFF;
+        pages[page][offset] = val;
+        
+        if(wideDecoded[page]){
+            decoded[page] = null;
+            wideDecoded[page] = false;
+            return;
+        }
+        Instruction[] cache = decoded[page];
+        if(cache != null)//Drop every instruction decoded from this address
+            for(int i = Math.max(0, offset - DECODE_SPAN + 1); i <= offset; i++)
+                cache[i] = null;
+    }
+    
+    /**
+     * @param heatmap Heatmap counting every access to memory from now on, or null
+     */
+    public void setHeatmap(MemoryHeatmap heatmap) {
+        this.heatmap = heatmap;
+    }
+    
+    /**
+     * @param address Address of the instruction
+     * @return The Instruction cached for address, or null
+     */
+    public Instruction getDecoded(int address) {
+        Instruction[] cache = decoded[address >> 8];
+        return cache == null ? null : cache[address & 0xFF];
+    }
+    
+    /**
+     * Caches an Instruction decoded from at most DECODE_SPAN bytes at address
+     * The bytes must all be in the page of address
+     * @param address Address of the instruction
+     * @param instruction The decoded Instruction
+     */
+    public void setDecoded(int address, Instruction instruction) {
+        setDecoded(address, instruction, DECODE_SPAN);
+    }
+    
+    /**
+     * Caches an Instruction decoded from span bytes at address
+     * The bytes must all be in the page of address
+     * @param address Address of the instruction
+     * @param instruction The decoded Instruction
+     * @param span Number of bytes the Instruction was decoded from
+     */
+    public void setDecoded(int address, Instruction instruction, int span) {
+        int page = address >> 8;
+        if(span > DECODE_SPAN)
+            wideDecoded[page] = true;
+        if(decoded[page] == null)
+            decoded[page] = new Instruction[PAGE_SIZE];
+        decoded[page][address & 0xFF] = instruction;
+    }
+    
+    /**
+     * Empties the decode cache, needed when the instruction set changes
+     */
+    public void clearDecoded() {
+        Arrays.fill(decoded, null);
+        Arrays.fill(wideDecoded, false);
+    }
+
+    /**
+     * @param i Index of the flag, 0x0 to 0xF
+     * @return Value of the RPL user flag
+     */
+    public int getFlag(int i) {
+        return flags[i];
+    }
+    
+    /**
+     * @param i Index of the flag, 0x0 to 0xF
+     * @param val New value of the RPL user flag
+     */
+    public void setFlag(int i, int val) {
+        flags[i] = val;
+    }
+    
+    /**
+     * @param i Index in the pattern, 0 to 15
+     * @return Byte of the XO-CHIP audio pattern
+     */
+    public int getAudioPattern(int i) {
+        return audioPattern[i];
+    }
+    
+    /**
+     * @param i Index in the pattern, 0 to 15
+     * @param val New byte of the XO-CHIP audio pattern
+     */
+    public void setAudioPattern(int i, int val) {
+        audioPattern[i] = val;
+    }
+    
+    /**
+     * @return XO-CHIP pitch, 64 plays the pattern at 4000 bits per second
+     */
+    public int getPitch() {
+        return pitch;
+    }
+    
+    /**
+     * @param pitch New XO-CHIP pitch
+     */
+    public void setPitch(int pitch) {
+        this.pitch = pitch;
     }
 
     /**
@@ -261,49 +781,98 @@ public class State implements Serializable{
         key[loc] = state;
     }
     
+    /**
+     * @return Number of cycles emulated since the last initialState()
+     */
+    public long getCycleCount() {
+        return cycleCount;
+    }
+    
+    /**
+     * Adds n to the cycle count
+     * @param n Number of cycles emulated
+     */
+    public void addCycles(int n) {
+        cycleCount += n;
+    }
+    
+    /**
+     * @param seed New seed of the random number generator
+     */
+    public void setRandomSeed(long seed) {
+        randomSeed = seed;
+    }
+    
+    /**
+     * Returns the next random number of the generator
+     * Uses SplitMix64 so that the whole generator is a single long,
+     * which keeps a recorded session reproducible from its seed
+     * @return A random int
+     */
+    public int nextRandom() {
+        long z = (randomSeed += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (int)(z ^ (z >>> 31));
+    }
+    
+    /**
+     * @return Hash of the loaded ROM
+     */
+    public long getRomHash() {
+        return romHash;
+    }
+    
+    /**
+     * @param romHash Hash of the loaded ROM
+     */
+    public void setRomHash(long romHash) {
+        this.romHash = romHash;
+    }
+    
     /** 
      * Returns a string representation of the State object
      * Necessary for debugging purposes
      * @see java.lang.Object#toString()
      */
     public String toString(){
-        String output = "";
-        output+="window:\n";
-        for(int x = 0; x < CPU.X_DIM; x++){
-            for(int y = 0; y < CPU.Y_DIM; y++)
-                output+="" + window[x][y];
-            output+="\n";
+        StringBuilder output = new StringBuilder(getWidth() * getHeight() * 6 + getMemorySize() * 6);
+        output.append("window:\n");
+        for(int x = 0; x < getWidth(); x++){
+            for(int y = 0; y < getHeight(); y++)
+                output.append(getWindowPos(x, y));
+            output.append("\n");
         }
         
-        output+="drawflag:" + drawFlag + "\n";
+        output.append("drawflag:").append(drawFlag).append("\n");
         
-        output+="Memory:\n";
-        for(int i = 0; i < CPU.MEMORY_SIZE; i++)
-            output+=" " + memory[i] + " ";
-        output+="\n";
+        output.append("Memory:\n");
+        for(int i = 0; i < getMemorySize(); i++)
+            output.append(" ").append(peekMemAddr(i)).append(" ");
+        output.append("\n");
         
-        output+="indexReg: " + indexReg + "\n";
-        output+="programCounter: " + programCounter + "\n";
+        output.append("indexReg: ").append(indexReg).append("\n");
+        output.append("programCounter: ").append(programCounter).append("\n");
         
-        output+="Stack: \n";
+        output.append("Stack: \n");
         for(int i = 0; i<16; i++)
-            output+= stack[i] + " ";
-        output+= "\n";
+            output.append(stack[i]).append(" ");
+        output.append("\n");
         
-        output+="key: \n";
+        output.append("key: \n");
         for(int i = 0; i<16; i++)
-            output+= key[i] + " ";
-        output+= "\n";
+            output.append(key[i]).append(" ");
+        output.append("\n");
         
-        output+="V: \n";
+        output.append("V: \n");
         for(int i = 0; i<16; i++)
-            output+= V[i] + " ";
-        output+= "\n";
+            output.append(V[i]).append(" ");
+        output.append("\n");
         
-        output+="delayTimer " + delayTimer + "\n";
-        output+="soundTimer " + soundTimer + "\n";
-        output+="Opcode: " + Integer.toHexString(getOpcode()) + "\n";
+        output.append("delayTimer ").append(delayTimer).append("\n");
+        output.append("soundTimer ").append(soundTimer).append("\n");
+        output.append("Opcode: ").append(Integer.toHexString(getOpcode())).append("\n");
         
-        return output;
+        return output.toString();
     }
 }
@@ -0,0 +1,210 @@
+/**
+ * Fuses common instruction sequences into a single Instruction
+ * Sequences are found when an address is decoded, by looking at the
+ * Instructions the table maps the following opcodes to:
+ *
+ * 3XNN/4XNN; 1NNN  - conditional jump
+ * 6XNN; 6YNN       - loading two registers
+ * ANNN; DXYN       - drawing a sprite
+ * FX07; 3X00; 1NNN - waiting for the delay timer
+ *
+ * Loops known to be idle loops, see ROMDatabase, are fused whole by decodeIdleLoop.
+ *
+ * A fused Instruction returns the number of instructions it retired, so the
+ * timers and cycle count advance exactly as if they ran one at a time. Only
+ * the first instruction of a sequence may use the timers, which is what lets
+ * the timers run after the whole sequence. Sequences never cross a page, so
+ * a write to any of their bytes clears them from the decode cache, and a jump
+ * into the middle of a sequence finds the instruction decoded on its own.
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class Superinstructions {
+    /**
+     * Decodes the instruction at pc, fused with the instructions after it if possible
+     *
+     * @param table Table mapping opcodes to Instructions
+     * @param s State holding the code
+     * @param pc Address of the instruction
+     * @return The decoded Instruction
+     */
+    public static Instruction decode(Instruction[] table, State s, int pc){
+        Instruction first = table[opcodeAt(s, pc)];
+        int room = State.PAGE_SIZE - (pc & 0xFF);//Bytes left in the page
+        if(room < 4)
+            return first;
+        Instruction second = table[opcodeAt(s, pc + 2)];
+
+        if(first instanceof InstructionTable.SkipIfEqual && second instanceof InstructionTable.Jump){
+            InstructionTable.SkipIfEqual skip = (InstructionTable.SkipIfEqual)first;
+            return new SkipOrJump(skip.x, skip.nn, true, ((InstructionTable.Jump)second).nnn);
+        }
+        if(first instanceof InstructionTable.SkipIfNotEqual && second instanceof InstructionTable.Jump){
+            InstructionTable.SkipIfNotEqual skip = (InstructionTable.SkipIfNotEqual)first;
+            return new SkipOrJump(skip.x, skip.nn, false, ((InstructionTable.Jump)second).nnn);
+        }
+        if(first instanceof InstructionTable.Set && second instanceof InstructionTable.Set)
+            return new SetPair((InstructionTable.Set)first, (InstructionTable.Set)second);
+        if(first instanceof InstructionTable.SetIndex && second instanceof InstructionTable.Draw)
+            return new SetIndexAndDraw(((InstructionTable.SetIndex)first).nnn, (InstructionTable.Draw)second);
+
+        if(room >= 6 && first instanceof InstructionTable.GetDelay && second instanceof InstructionTable.SkipIfEqual){
+            Instruction third = table[opcodeAt(s, pc + 4)];
+            int x = ((InstructionTable.GetDelay)first).x;
+            InstructionTable.SkipIfEqual skip = (InstructionTable.SkipIfEqual)second;
+            if(skip.x == x && skip.nn == 0 && third instanceof InstructionTable.Jump)
+                return new DelayWait(x, ((InstructionTable.Jump)third).nnn);
+        }
+        return first;
+    }
+
+    /**
+     * Decodes the idle loop at start, closed by a jump back to start in the same page
+     * The loop may not write memory, as its code would be stale for the rest of a
+     * call, and only its first instruction may use the timers.
+     *
+     * @param table Table mapping opcodes to Instructions
+     * @param s State holding the code
+     * @param start Address of the first instruction of the loop
+     * @return The fused loop, or null if there is no such loop at start
+     */
+    public static IdleLoop decodeIdleLoop(Instruction[] table, State s, int start){
+        int end = start;
+        while(true){
+            if((end & 0xFF) > State.PAGE_SIZE - 2)
+                return null;
+            Instruction instruction = table[opcodeAt(s, end)];
+            if(instruction instanceof InstructionTable.Jump && ((InstructionTable.Jump)instruction).nnn == start)
+                break;
+            boolean timers = instruction instanceof InstructionTable.GetDelay
+                    || instruction instanceof InstructionTable.SetDelay
+                    || instruction instanceof InstructionTable.SetSound;
+            if((timers && end != start) || instruction instanceof InstructionTable.WaitKey
+                    || instruction instanceof InstructionTable.Exit || instruction instanceof InstructionTable.LongIndex
+                    || instruction instanceof InstructionTable.Store || instruction instanceof InstructionTable.BCD
+                    || instruction instanceof InstructionTable.SaveRange || instruction instanceof InstructionTable.Invalid)
+                return null;
+            end += 2;
+        }
+        Instruction[] body = new Instruction[(end - start) / 2 + 1];
+        for(int i = 0; i < body.length; i++)
+            body[i] = table[opcodeAt(s, start + 2 * i)];
+        Instruction first = body[0];
+        boolean timers = first instanceof InstructionTable.GetDelay
+                || first instanceof InstructionTable.SetDelay
+                || first instanceof InstructionTable.SetSound;
+        return new IdleLoop(start, body, timers ? 1 : IdleLoop.PASSES);
+    }
+
+    /**
+     * @return The opcode at address, as emulateCycle fetches it
+     */
+    private static int opcodeAt(State s, int address){
+        return (s.peekMemAddr(address) << 8 | s.peekMemAddr(address + 1)) & 0xFFFF;
+    }
+
+    // 3XNN/4XNN; 1NNN: Jumps to NNN unless VX equals (or doesn't equal) NN
+    static class SkipOrJump extends Instruction {
+        final int x, nn, nnn;
+        final boolean skipIfEqual;
+        SkipOrJump(int x, int nn, boolean skipIfEqual, int nnn){
+            this.x = x; this.nn = nn; this.skipIfEqual = skipIfEqual; this.nnn = nnn;
+        }
+        public int execute(Chip8 cpu, State s){
+            if((s.getV(x) == nn) == skipIfEqual){
+                s.incProgramCounter(4);//Jump is skipped
+                return 1;
+            }
+            s.setProgramCounter(nnn);
+            return 2;
+        }
+        public int maxRetired(){
+            return 2;
+        }
+    }
+
+    // 6XNN; 6YNN: Sets VX and VY
+    static class SetPair extends Instruction {
+        final int x, xValue, y, yValue;
+        SetPair(InstructionTable.Set first, InstructionTable.Set second){
+            x = first.x; xValue = first.nn; y = second.x; yValue = second.nn;
+        }
+        public int execute(Chip8 cpu, State s){
+            s.setV(x, xValue);
+            s.setV(y, yValue);
+            s.incProgramCounter(4);
+            return 2;
+        }
+        public int maxRetired(){
+            return 2;
+        }
+    }
+
+    // ANNN; DXYN: Sets I and draws the sprite at I
+    static class SetIndexAndDraw extends Instruction {
+        final int nnn;
+        final InstructionTable.Draw draw;
+        SetIndexAndDraw(int nnn, InstructionTable.Draw draw){
+            this.nnn = nnn; this.draw = draw;
+        }
+        public int execute(Chip8 cpu, State s){
+            s.setIndexReg(nnn);
+            s.incProgramCounter(2);
+            return 1 + draw.execute(cpu, s);
+        }
+        public int maxRetired(){
+            return 2;
+        }
+    }
+
+    // A known idle loop: runs passes of the loop until it leaves the loop, a skip is taken
+    // or it has run passes times. A loop that uses the timers runs one pass a call, so the
+    // timers advance before it reads them again, other loops run several
+    static class IdleLoop extends Instruction {
+        static final int PASSES = 16;
+        final int start, passes;
+        final Instruction[] body;//body[i] is at start + 2 * i, the last jumps back to start
+        IdleLoop(int start, Instruction[] body, int passes){
+            this.start = start; this.body = body; this.passes = passes;
+        }
+        int length(){
+            return body.length * 2;
+        }
+        public int execute(Chip8 cpu, State s){
+            int retired = 0;
+            for(int pass = 0; pass < passes; pass++)
+                for(int i = 0; i < body.length; i++){
+                    retired += body[i].execute(cpu, s);
+                    int next = i + 1 < body.length ? start + 2 * (i + 1) : start;
+                    if(s.getProgramCounter() != next)
+                        return retired;
+                }
+            return retired;
+        }
+        public int maxRetired(){
+            return passes * body.length;
+        }
+    }
+
+    // FX07; 3X00; 1NNN: Reads the delay timer into VX and jumps to NNN unless it is 0
+    static class DelayWait extends Instruction {
+        final int x, nnn;
+        DelayWait(int x, int nnn){
+            this.x = x; this.nnn = nnn;
+        }
+        public int execute(Chip8 cpu, State s){
+            int delay = s.getDelayTimer();
+            s.setV(x, delay);
+            if(delay == 0){
+                s.incProgramCounter(6);//Jump is skipped
+                return 2;
+            }
+            s.setProgramCounter(nnn);
+            return 3;
+        }
+        public int maxRetired(){
+            return 3;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records every instruction the CPU runs into a compact binary trace
+ * Records are written into preallocated buffers by the CPU thread. Full
+ * buffers are handed to a writer thread that writes them with a FileChannel
+ * and hands them back, so tracing costs a few stores per instruction and
+ * never allocates. If the writer falls behind the CPU waits for a buffer,
+ * a trace never drops records.
+ *
+ * A record holds the registers the instruction changed, not the whole state,
+ * so the state at any point is rebuilt by reading the trace from the start.
+ *
+ * File format (big endian):
+ * int MAGIC, byte VERSION, long romHash, long start cycle
+ * For each instruction: byte cycles since the last record, short pc,
+ * short opcode, short mask of changed V registers, byte CHANGED_ flags,
+ * each changed V register in order, short I if changed,
+ * then the delay and sound timers if changed
+ * V and timer values up to 0xFE take one byte, else 0xFF and an int
+ *
+ * Usage: java TraceLogger <trace file>
+ * Prints the trace as text
+ *
+ * @author David Watkins
+ * @UNI: djw2146
+ */
+public class TraceLogger {
+    public static final int MAGIC = 0x43385452;//"C8TR"
+    public static final int VERSION = 1;
+    public static final int CHANGED_INDEX = 1, CHANGED_DELAY = 2, CHANGED_SOUND = 4;
+    public static final int BUFFER_SIZE = 1 << 20;
+    public static final int BUFFERS = 4;
+    private static final int MAX_RECORD = 8 + 16 * 5 + 2 + 2 * 5;
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+    private final ByteBuffer stop = ByteBuffer.allocate(0);//Tells the writer to finish
+    private final Thread writer;
+    private volatile IOException error;
+    private ByteBuffer buffer;
+
+    //Registers as of the last record
+    private final int[] v = new int[16];
+    private int index, delay, sound;
+    private long lastCycle;
+
+    /**
+     * Creates a trace file and starts its writer thread
+     * The header is written when the logger is given to CPU#setTracer
+     *
+     * @param fileName Name of the trace file
+     * @throws IOException If the file cannot be written
+     */
+    public TraceLogger(String fileName) throws IOException{
+        channel = new FileOutputStream(fileName).getChannel();
+        for(int i = 0; i < BUFFERS; i++)
+            free.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        buffer = free.poll();
+
+        writer = new Thread(new Runnable(){
+            public void run(){
+                write();
+            }
+        }, "TraceLogger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes the header and remembers the registers the trace starts from, called by the CPU
+     *
+     * @param state State the trace starts from
+     */
+    void begin(State state){
+        buffer.putInt(MAGIC);
+        buffer.put((byte)VERSION);
+        buffer.putLong(state.getRomHash());
+        buffer.putLong(state.getCycleCount());
+
+        for(int i = 0; i < 16; i++)
+            v[i] = state.getV(i);
+        index = state.getIndexReg();
+        delay = state.getDelayTimer();
+        sound = state.getSoundTimer();
+        lastCycle = state.getCycleCount();
+    }
+
+    /**
+     * Records an instruction after it ran, called by the CPU
+     *
+     * @param pc Address of the instruction
+     * @param opcode The instruction
+     * @param s State after the instruction ran
+     */
+    void record(int pc, int opcode, State s){
+        if(buffer.remaining() < MAX_RECORD)
+            handOff();
+        ByteBuffer b = buffer;
+        long cycle = s.getCycleCount();
+        b.put((byte)(cycle - lastCycle));
+        lastCycle = cycle;
+        b.putShort((short)pc);
+        b.putShort((short)opcode);
+
+        int mask = 0;
+        for(int i = 0; i < 16; i++)
+            if(s.getV(i) != v[i])
+                mask |= 1 << i;
+        int flags = (s.getIndexReg() != index ? CHANGED_INDEX : 0)
+                | (s.getDelayTimer() != delay ? CHANGED_DELAY : 0)
+                | (s.getSoundTimer() != sound ? CHANGED_SOUND : 0);
+        b.putShort((short)mask);
+        b.put((byte)flags);
+
+        for(int i = 0; mask != 0; i++, mask >>>= 1)
+            if((mask & 1) != 0){
+                v[i] = s.getV(i);
+                putValue(b, v[i]);
+            }
+        if((flags & CHANGED_INDEX) != 0){
+            index = s.getIndexReg();
+            b.putShort((short)index);
+        }
+        if((flags & CHANGED_DELAY) != 0){
+            delay = s.getDelayTimer();
+            putValue(b, delay);
+        }
+        if((flags & CHANGED_SOUND) != 0){
+            sound = s.getSoundTimer();
+            putValue(b, sound);
+        }
+    }
+
+    private static void putValue(ByteBuffer b, int value){
+        if(value >= 0 && value < 0xFF)
+            b.put((byte)value);
+        else{
+            b.put((byte)0xFF);
+            b.putInt(value);
+        }
+    }
+
+    /**
+     * Sends the current buffer to the writer and takes an empty one
+     */
+    private void handOff(){
+        try{
+            full.put(buffer);
+            buffer = free.take();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            buffer.clear();//Can't wait for the writer, the trace loses this buffer
+        }
+    }
+
+    /**
+     * Writes buffers until close() is called, run by the writer thread
+     */
+    private void write(){
+        try{
+            while(true){
+                ByteBuffer b = full.take();
+                if(b == stop)
+                    break;
+                b.flip();
+                try{
+                    while(b.hasRemaining())
+                        channel.write(b);
+                }
+                catch(IOException e){
+                    error = e;//Keep taking buffers so the CPU never blocks
+                }
+                b.clear();
+                free.put(b);
+            }
+        }
+        catch(InterruptedException e){
+            //Closed
+        }
+    }
+
+    /**
+     * Writes the remaining records and closes the file
+     *
+     * @throws IOException If the trace could not be written
+     */
+    public void close() throws IOException{
+        try{
+            full.put(buffer);
+            full.put(stop);
+            writer.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        finally{
+            channel.close();
+        }
+        if(error != null)
+            throw error;
+    }
+
+    private static int readValue(DataInputStream in) throws IOException{
+        int value = in.readUnsignedByte();
+        return value == 0xFF ? in.readInt() : value;
+    }
+
+    /**
+     * Prints a trace as text, one line per instruction
+     *
+     * @param fileName Name of the trace file
+     * @param out Stream to print to
+     * @throws IOException If the trace cannot be read
+     */
+    public static void render(String fileName, PrintStream out) throws IOException{
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+        try{
+            if(in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+                throw new IOException("Not a trace file");
+            out.println("ROM " + Long.toHexString(in.readLong()));
+            long cycle = in.readLong();
+            StringBuilder line = new StringBuilder();
+            while(true){
+                int delta;
+                try{
+                    delta = in.readUnsignedByte();
+                }
+                catch(EOFException e){
+                    break;
+                }
+                //The cycle count is updated after the instruction, so this is the cycle it ran on
+                long ran = cycle;
+                cycle += delta;
+                int pc = in.readUnsignedShort();
+                int opcode = in.readUnsignedShort();
+                int mask = in.readUnsignedShort();
+                int flags = in.readUnsignedByte();
+
+                line.setLength(0);
+                line.append(String.format("%10d  %03X  %04X  %-16s", ran, pc, opcode, ROMAnalyzer.disassemble(opcode)));
+                for(int i = 0; i < 16; i++)
+                    if((mask & 1 << i) != 0)
+                        line.append(String.format(" V%X=%02X", i, readValue(in)));
+                if((flags & CHANGED_INDEX) != 0)
+                    line.append(String.format(" I=%03X", in.readUnsignedShort()));
+                if((flags & CHANGED_DELAY) != 0)
+                    line.append(" DT=").append(readValue(in));
+                if((flags & CHANGED_SOUND) != 0)
+                    line.append(" ST=").append(readValue(in));
+                out.println(line);
+            }
+        }
+        finally{
+            in.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException{
+        if(args.length < 1){
+            System.out.println("Usage: java TraceLogger <trace file>");
+            return;
+        }
+        render(args[0], System.out);
+    }
+}
@@ -10,8 +10,22 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentEvent;
+import java.awt.event.ComponentListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
@@ -19,26 +33,84 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.SwingUtilities;
 
 public class Window extends JPanel implements ActionListener
 {
 	//define variables for the window
     private JFrame frame = new JFrame();
 	private JMenu menu = new JMenu("File");
-	private JMenuItem open, save, load;
+	private JMenuItem open, save, load, record, stopRecord, capture, stopCapture, latency, stopLatency, share, stopShare;
+	private JMenu view = new JMenu("View");
+	private JRadioButtonMenuItem nearest, scale2x;
+	private JCheckBoxMenuItem phosphor, autosave;
+	private JMenu unfocused = new JMenu("When Unfocused");
+	private JRadioButtonMenuItem keepRunning, slowDown, pause;
+	private JMenu quirks = new JMenu("Quirks");
+	private JRadioButtonMenuItem[] profiles = new JRadioButtonMenuItem[QuirkProfile.PROFILES.length];  //one per QuirkProfile
 	private JMenuBar menuBar = new JMenuBar();
 	private int displayWidth;
 	private int displayLength;
-	private JFileChooser fileChooser;
+	private JFileChooser fileChooser;  //built when first needed, as it scans the filesystem
 	private File file;
-	private int[][][] screenData;
 	private CPU cpu;
 	private BufferedImage I;
-	private BufferedImage tempI;
+	private BufferedImage backI;  //enlarge draws here, then swaps it with I
+	private byte[] frameBuffer = new byte[CPU.MAX_FRAME_BYTES];  //packed framebuffer from the cpu
+	private int frameWidth, frameHeight;  //size of the frame in frameBuffer, 64x32 or 128x64
+	private ScreenFilter filter = new ScreenFilter(new ForkJoinPool());  //scales frameBuffer up to I
+	private MovieRecorder recorder;  //movie being recorded, only display() touches it
+	private long presentedHash;  //frame hash of image I, a blank screen hashes to 0
+	private FrameCapture frameCapture;
+	private SharedFramebuffer sharedFramebuffer;
+	private volatile LatencyTracer latencyTracer;  //measures input lag when set
+	private volatile ArrayList<FrameListener> frameListeners = new ArrayList<FrameListener>();
+	private volatile boolean shown = true;  //false while minimized or hidden, nothing is rendered
+	private volatile boolean focused = true;
+	private volatile boolean stale;  //frames changed while not shown
+	private volatile int unfocusedPolicy = KEEP_RUNNING;
+	private final Object throttleLock = new Object();  //throttle() waits on this while paused
+	private SaveWriter saveWriter = new SaveWriter(AUTOSAVE_SLOTS);  //writes saves in the background
+	private volatile String pendingSave;  //save requested by the menu, taken by display()
+	private final SaveListener saveConfirm = new SaveListener()  //tells the player once the save is on disk
+	{
+		public void saveDone(String fileName, final boolean written)
+		{
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					if(written)
+						JOptionPane.showMessageDialog(null, "Your file has been saved!", "Order", 2);  //box pops open
+					else
+						JOptionPane.showMessageDialog(null, "Your file could not be saved!", "Order", JOptionPane.ERROR_MESSAGE);
+				}
+			});
+		}
+	};
+	private volatile boolean autosaveDue;  //set by autosaveTimer, taken by display()
+	private volatile QuirkProfile pendingProfile;  //chosen in the menu, taken by display()
+	private volatile String pendingMovieROM;  //rom restarted for pendingMovie, set before it
+	private volatile MovieRecorder pendingMovie;  //movie started in the menu, taken by display()
+	private volatile boolean movieStopDue;  //set by the menu, taken by display()
+	private long pendingMovieSeed;  //seed written to pendingMovie, set before it
+	private KeyListenerClass keyListener;
+	private volatile int cyclesPerFrame;  //clock of the ROM from the ROM database, 0 to run flat out
+	private long frameCycles;  //cycle count at the start of the current paced frame
+	private long frameDeadline;  //System.nanoTime() the current paced frame ends at
+	private final CountDownLatch romLoaded = new CountDownLatch(1);  //opened once a rom or save is loaded
+	private Timer autosaveTimer;
 	
     private static final long serialVersionUID = 1L;
 	private final int ENLARGE = 15;
 	private final int X_OFFSET = 15, Y_OFFSET = 63;
+	private final int CAPTURE_FRAMES = 256;  //frames buffered for the capture encoder
+	public static final int KEEP_RUNNING = 0, SLOW_DOWN = 1, PAUSE = 2;  //what to do when unfocused
+	public static final int AUTOSAVE_SECONDS = Integer.getInteger("chip8.autosaveSeconds", 60);
+	public static final int AUTOSAVE_SLOTS = Integer.getInteger("chip8.autosaveSlots", 3);
+	public static final int LOW_CLOCK_HZ = Integer.getInteger("chip8.lowClock", 500);  //cycles per second when slowed down
+	public static final long FRAME_NANOS = 1000000000L / 60;  //a paced frame, cycles per frame are per 60th of a second
 	
 	//constructor
 	public Window(CPU current)
@@ -46,25 +118,77 @@ public class Window extends JPanel implements ActionListener
 		//set variables
 	    displayWidth = ENLARGE*CPU.X_DIM;
 	    displayLength = ENLARGE*CPU.Y_DIM;
-	    screenData = new int[CPU.X_DIM][CPU.Y_DIM][3];
 	    I = new BufferedImage(displayWidth, displayLength, BufferedImage.TYPE_INT_RGB);
-	    tempI = new BufferedImage(displayWidth, displayLength, BufferedImage.TYPE_INT_RGB);
-	    fileChooser = new JFileChooser();
+	    backI = new BufferedImage(displayWidth, displayLength, BufferedImage.TYPE_INT_RGB);
 	    
 	    cpu = current;
-		setup(); //sets up intial screen which is black
 		frame.setTitle("Chip 8 Emulator");
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		open = new JMenuItem("New Game");
 		save = new JMenuItem("Save");
+		autosave = new JCheckBoxMenuItem("Autosave");
 		load = new JMenuItem("Load");
+		record = new JMenuItem("Record Movie");
+		stopRecord = new JMenuItem("Stop Recording");
+		stopRecord.setEnabled(false);
+		capture = new JMenuItem("Start Capture");
+		stopCapture = new JMenuItem("Stop Capture");
+		stopCapture.setEnabled(false);
+		latency = new JMenuItem("Measure Input Latency");
+		stopLatency = new JMenuItem("Stop Measuring Latency");
+		stopLatency.setEnabled(false);
+		share = new JMenuItem("Share Framebuffer");
+		stopShare = new JMenuItem("Stop Sharing");
+		stopShare.setEnabled(false);
+		nearest = new JRadioButtonMenuItem("Nearest", true);
+		scale2x = new JRadioButtonMenuItem("Scale2x");
+		phosphor = new JCheckBoxMenuItem("Phosphor");
+		ButtonGroup filters = new ButtonGroup();  //only one filter at a time
+		filters.add(nearest);
+		filters.add(scale2x);
+		keepRunning = new JRadioButtonMenuItem("Keep Running", true);
+		slowDown = new JRadioButtonMenuItem("Slow Down");
+		pause = new JRadioButtonMenuItem("Pause");
+		ButtonGroup policies = new ButtonGroup();
+		policies.add(keepRunning);
+		policies.add(slowDown);
+		policies.add(pause);
+		ButtonGroup quirkProfiles = new ButtonGroup();
+		for(int i = 0; i < profiles.length; i++)
+		{
+			profiles[i] = new JRadioButtonMenuItem(QuirkProfile.PROFILES[i].getName(), i == 0);
+			quirkProfiles.add(profiles[i]);
+			quirks.add(profiles[i]);
+			profiles[i].addActionListener(this);
+		}
 
 		//add all items to menu 
 		menu.add(open);
 		menu.add(load);
 		menu.add(save);
+		menu.add(autosave);
+		menu.add(record);
+		menu.add(stopRecord);
+		menu.add(capture);
+		menu.add(stopCapture);
+		menu.add(latency);
+		menu.add(stopLatency);
+		menu.add(share);
+		menu.add(stopShare);
+		
+		view.add(nearest);
+		view.add(scale2x);
+		view.addSeparator();
+		view.add(phosphor);
+		view.addSeparator();
+		unfocused.add(keepRunning);
+		unfocused.add(slowDown);
+		unfocused.add(pause);
+		view.add(unfocused);
 		
 		menuBar.add(menu); //add menu to menu bar
+		menuBar.add(view);
+		menuBar.add(quirks);
 		frame.setJMenuBar(menuBar);  //set menu bar
 		frame.setContentPane(this);  //set the content pane to this since extends JPanel
 		
@@ -76,17 +200,39 @@ public class Window extends JPanel implements ActionListener
 		load.addActionListener(loadListener);
 		
 		save.addActionListener(this);
+		autosave.addActionListener(this);
+		record.addActionListener(this);
+		stopRecord.addActionListener(this);
+		capture.addActionListener(this);
+		stopCapture.addActionListener(this);
+		latency.addActionListener(this);
+		stopLatency.addActionListener(this);
+		share.addActionListener(this);
+		stopShare.addActionListener(this);
+		nearest.addActionListener(this);
+		scale2x.addActionListener(this);
+		phosphor.addActionListener(this);
+		keepRunning.addActionListener(this);
+		slowDown.addActionListener(this);
+		pause.addActionListener(this);
+		
+		//follow minimizing, hiding and focus so throttle() and display() can back off
+		WindowStateTracker tracker = new WindowStateTracker();
+		frame.addWindowListener(tracker);
+		frame.addWindowFocusListener(tracker);
+		frame.addComponentListener(tracker);
 		
 		//if drawflag is true
 		if(cpu.getDrawFlag())
 		{		
-			convert();  //convert 2D screenData to image
+			update(cpu);  //copy the frame from the cpu
 			enlarge();  //enlarge image
 		}
 			
 		//add keylistener to frame so that keys can be pressed and recognized
 		frame.setFocusable(true);  
-		frame.addKeyListener(new KeyListenerClass(cpu));
+		keyListener = new KeyListenerClass(cpu);
+		frame.addKeyListener(keyListener);
 		
 		//set frame size, the offset is added because the menu bar
 		//add extra width and length
@@ -95,79 +241,39 @@ public class Window extends JPanel implements ActionListener
 	}
 	
 	/**
-	 * This method sets up the initial screen which is black
-	 */
-	public void setup()
-	{
-		//nested loop that goes through screenData and set all to black
-		for(int x = 0; x < CPU.X_DIM; x++)		
-			for(int y = 0; y < CPU.Y_DIM; y++)
-				screenData[x][y][0] = screenData[x][y][1] = screenData[x][y][2] = 0;
-	}
-	
-	/**
-	 * This method converts data from screenData to image tempI
+	 * This method enlarges the picture with the filter chosen in the View menu.
+	 * The two enlarged images are reused, the one not on screen is drawn and then swapped in.
 	 */
-	public void convert()
+	public void enlarge() 
 	{
-		//nested loop through all screenData
-		for(int x = 0; x < CPU.X_DIM; x++)		
-		{
-			for(int y = 0; y < CPU.Y_DIM; y++)
-			{
-				int rgb;  //initialize rgb value
-				//if = to 255 then set rgb value to white
-				//else black
-				if(screenData[x][y][0] == 255) 
-					rgb = 0xFFFFFF;  //white
-				else
-					rgb = 0x000000;  //black
-				
-				tempI.setRGB(x, y, rgb);  //set rgb in image tempI
-			}
-		}
+        //enlarged image
+        BufferedImage enlargedImage = backI;
+        filter.render(frameBuffer, frameWidth, frameHeight, pixels(enlargedImage), displayWidth, displayLength);
+        
+       backI = I;
+       I = enlargedImage; //set image I to enlarged image
 	}
 	
 	/**
-	 * This method enlarges the picture.
+	 * This method returns the pixel array backing an image.
+	 * @param image TYPE_INT_RGB image
+	 * @return pixels of image, row by row
 	 */
-	public void enlarge() 
+	private static int[] pixels(BufferedImage image)
 	{
-        int w = displayWidth;  //enlarged width
-        int l = displayLength;  //enlarged 
-        
-        //enlarged image
-        BufferedImage enlargedImage = new BufferedImage(w, l, tempI.getType());
-        
-        //go through enlarged image and set rgb value
-        //it gets the rgb from the temporary image tempI. I divide the
-        //coordinates by enlarge so that I can fill each pixel in enlarged image
-        for (int x=0; x < w; x++)
-            for (int y=0; y < l; y++)
-                enlargedImage.setRGB(x, y, tempI.getRGB(x/ENLARGE, y/ENLARGE));
-        
-       I = enlargedImage; //set image I to enlarged image
+		return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
 	}
 	
 	/**
-	 * This method updates screenData for the appropriate colors in each pixel
+	 * This method copies the packed framebuffer from the cpu, one bit per pixel
+	 * In the 128x64 mode the frame is scaled to the same window
 	 * @param cpu CPU class
 	 */
 	private void update(CPU cpu)
 	{
-		boolean[][] window = cpu.getWindow();  //get 2D array of info from windows
-		
-		//nested for loop that goes through window and screenData
-		for(int y = 0; y < CPU.Y_DIM; ++y)
-		{
-			for(int x = 0; x < CPU.X_DIM; ++x)
-			{
-				if(window[x][y] == false)  //if equals to false then it's black
-					screenData[x][y][0] = screenData[x][y][1] = screenData[x][y][2] = 0; //black
-				else   //other wise it's white
-					screenData[x][y][0] = screenData[x][y][1] = screenData[x][y][2] = 255;  //white				
-			}	
-		}
+		frameWidth = cpu.getWidth();
+		frameHeight = cpu.getHeight();
+		cpu.copyFramebuffer(frameBuffer);
 	}
 
 	/**
@@ -175,23 +281,255 @@ public class Window extends JPanel implements ActionListener
 	 */
     public void display()
     {
+    	//saves are taken here, between cycles, so the snapshot is never torn
+    	String saveName = pendingSave;
+    	if(saveName != null)
+    	{
+    		pendingSave = null;
+    		saveWriter.save(cpu, saveName, saveConfirm);
+    	}
+    	if(autosaveDue)
+    	{
+    		autosaveDue = false;
+    		saveWriter.autosave(cpu, file != null ? file.getName() : "chip8");
+    	}
+    	QuirkProfile profile = pendingProfile;
+    	if(profile != null)  //swapped between cycles, as the decode cache is dropped with it
+    	{
+    		pendingProfile = null;
+    		cpu.setQuirkProfile(profile);
+    	}
+    	if(movieStopDue)
+    	{
+    		movieStopDue = false;
+    		if(recorder != null)
+    		{
+    			cpu.setInputRecorder(null);
+    			recorder.close(cpu.getCycleCount());
+    			recorder = null;
+    		}
+    	}
+    	MovieRecorder movie = pendingMovie;
+    	if(movie != null)  //the rom restarts between cycles, recording from its first cycle
+    	{
+    		pendingMovie = null;
+    		cpu.loadROM(pendingMovieROM);
+    		cpu.setSeed(pendingMovieSeed);
+    		cpu.setInputRecorder(movie);
+    		recorder = movie;
+    	}
+    	
+    	if(stale && shown)  //frames changed while minimized, catch up now
+    	{
+    		stale = false;
+    		update(cpu);
+    		enlarge();
+    		repaint();
+    	}
     	if(cpu.getDrawFlag())  //if drawflag true then update screen
     	{
-    		update(cpu);   //update 2D array screendata to correct rgb values
-    		convert();    //convert array data to image
-    		enlarge();    //enlarge image
+    		long hash = cpu.getFrameHash();
     		cpu.setDrawFlag(false);   //set drawflag to false
+    		boolean changed = hash != presentedHash;
+    		if(!changed && !filter.isPhosphor())  //sprite was erased and redrawn, nothing changed
+    			return;
+    		presentedHash = hash;
+    		
+    		if(shown)  //nothing is rendered while the window can't be seen
+    		{
+    			update(cpu);   //copy the frame from the cpu
+    			enlarge();    //enlarge image
+    			repaint();    //ask swing to paint the new image
+    		}
+    		else
+    			stale = true;
+    		if(!changed)  //only the phosphor faded, the frame is the same
+    			return;
+    		
+    		//hand the new frame to recorders, index loop avoids an iterator per frame
+    		ArrayList<FrameListener> listeners = frameListeners;
+    		for(int i = 0; i < listeners.size(); i++)
+    			listeners.get(i).frameReady(cpu);
+    		
+    		LatencyTracer tracer = latencyTracer;
+    		if(tracer != null)
+    			tracer.framePublished();
     	}
     }
+    
+    /**
+     * This method adds a listener that receives every displayed frame.
+     * @param listener FrameListener to add
+     */
+    public synchronized void addFrameListener(FrameListener listener)
+    {
+    	ArrayList<FrameListener> copy = new ArrayList<FrameListener>(frameListeners);
+    	copy.add(listener);
+    	frameListeners = copy;  //swap so display never sees a half changed list
+    }
+    
+    /**
+     * This method removes a listener added with addFrameListener.
+     * @param listener FrameListener to remove
+     */
+    public synchronized void removeFrameListener(FrameListener listener)
+    {
+    	ArrayList<FrameListener> copy = new ArrayList<FrameListener>(frameListeners);
+    	copy.remove(listener);
+    	frameListeners = copy;
+    }
 	
     /**
      * This method repaints the images in the jpanel and avoids
      * repainting the entire frame and covering the menu bar.
+     * Painting is requested by display() when there is a new image.
      */
     public void paintComponent(Graphics g)
     { 	
     	g.drawImage(I,0,0, this);
-    	repaint();
+    	LatencyTracer tracer = latencyTracer;
+    	if(tracer != null)
+    		tracer.framePresented();
+    }
+    
+    /**
+     * This method slows down or pauses the calling thread when the window
+     * is unfocused, as chosen in the View menu. When focused it runs a ROM
+     * the ROM database gives a clock for at that clock, else it returns at once.
+     * Timers count instructions, so they stay consistent through a pause.
+     * @throws InterruptedException if interrupted while paused
+     */
+    public void throttle() throws InterruptedException
+    {
+    	if(focused)
+    	{
+    		int budget = cyclesPerFrame;
+    		if(budget > 0)
+    			pace(budget);
+    		return;
+    	}
+    	int policy = unfocusedPolicy;
+    	if(policy == SLOW_DOWN)
+    		LockSupport.parkNanos(1000000000L / LOW_CLOCK_HZ);
+    	else if(policy == PAUSE)
+    	{
+    		synchronized(throttleLock)
+    		{
+    			while(!focused && unfocusedPolicy == PAUSE)
+    				throttleLock.wait();
+    		}
+    	}
+    }
+    
+    /**
+     * This method sleeps until the end of the frame once budget cycles
+     * ran in it. A frame that ends late is not caught up on.
+     * @param budget cycles per frame
+     */
+    private void pace(int budget)
+    {
+    	long cycles = cpu.getCycleCount();
+    	if(cycles - frameCycles < budget && cycles >= frameCycles)
+    		return;
+    	frameCycles = cycles;
+    	long now = System.nanoTime();
+    	frameDeadline += FRAME_NANOS;
+    	if(frameDeadline - now > 0)
+    		LockSupport.parkNanos(frameDeadline - now);
+    	else
+    		frameDeadline = now;
+    }
+    
+    /**
+     * This method tells the window a rom or save was loaded without the
+     * File menu, e.g. from the command line.
+     * @param rom the rom file, or null if unknown
+     */
+    public void opened(File rom)
+    {
+    	if(rom != null)
+    		file = rom;  //remember rom for recording
+    	applyROMInfo();
+    }
+    
+    /**
+     * This method waits until a rom or save is loaded, so nothing
+     * is emulated before the user picks something to run.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitROM() throws InterruptedException
+    {
+    	romLoaded.await();
+    }
+    
+    /**
+     * This method applies what the ROM database knows of the loaded ROM:
+     * its title, keys, clock and quirks.
+     */
+    private void applyROMInfo()
+    {
+    	romLoaded.countDown();
+    	ROMDatabase.Entry info = cpu.getROMInfo();
+    	String title = info == null ? "" : info.getTitle();
+    	frame.setTitle(title.isEmpty() ? "Chip 8 Emulator" : "Chip 8 Emulator - " + title);
+    	keyListener.setKeyMap(info == null ? null : info.getKeyMap());
+    	cyclesPerFrame = info == null ? 0 : info.getCyclesPerFrame();
+    	//a profile chosen in the menu is kept over the one the ROM database has
+    	QuirkProfile profile = pendingProfile != null ? pendingProfile : cpu.getQuirkProfile();
+    	for(int i = 0; i < profiles.length; i++)
+    		profiles[i].setSelected(QuirkProfile.PROFILES[i] == profile);
+    }
+    
+    /**
+     * This method wakes a thread paused in throttle().
+     */
+    private void wakeThrottle()
+    {
+    	synchronized(throttleLock)
+    	{
+    		throttleLock.notifyAll();
+    	}
+    }
+    
+    /**
+     * This class follows whether the window is shown and focused.
+     */
+    private class WindowStateTracker extends WindowAdapter implements ComponentListener
+    {
+    	public void windowIconified(WindowEvent e)
+    	{
+    		shown = false;
+    	}
+    	
+    	public void windowDeiconified(WindowEvent e)
+    	{
+    		shown = true;
+    	}
+    	
+    	public void windowGainedFocus(WindowEvent e)
+    	{
+    		focused = true;
+    		wakeThrottle();
+    	}
+    	
+    	public void windowLostFocus(WindowEvent e)
+    	{
+    		focused = false;
+    	}
+    	
+    	public void componentHidden(ComponentEvent e)
+    	{
+    		shown = false;
+    	}
+    	
+    	public void componentShown(ComponentEvent e)
+    	{
+    		shown = true;
+    	}
+    	
+    	public void componentResized(ComponentEvent e) {}
+    	
+    	public void componentMoved(ComponentEvent e) {}
     }
     
     /**
@@ -210,14 +548,20 @@ public class Window extends JPanel implements ActionListener
 		public void actionPerformed(ActionEvent arg0) 
 		{
 			//pop open a file chooser box to ask user for file
+			if(fileChooser == null)
+				fileChooser = new JFileChooser();
 			if (JFileChooser.APPROVE_OPTION == fileChooser.showOpenDialog(frame)) 
 			{
 				//get path
-				String file = fileChooser.getSelectedFile().getAbsolutePath();
+				String path = fileChooser.getSelectedFile().getAbsolutePath();
 				if(type.equals("load"))  
-				    cpu.loadState(file);  //load
+				    cpu.loadState(path);  //load
 				else if(type.equals("open"))
-				    cpu.loadROM(file);    // open rom
+				{
+				    cpu.loadROM(path);    // open rom
+				    file = fileChooser.getSelectedFile();  //remember rom for recording
+				}
+				applyROMInfo();  //title, keys and clock of the rom
 			}	
 		}
 	}
@@ -231,9 +575,213 @@ public class Window extends JPanel implements ActionListener
 		{
 			//ask for save name
 		    String fileName = JOptionPane.showInputDialog("Please enter save name:");
-			cpu.saveState(fileName);  //call save method
-			JOptionPane.showMessageDialog(null, "Your file has been saved!", "Order", 2);  //box pops open
+		    if(fileName == null)
+		    	return;
+			pendingSave = fileName;  //display() snapshots the game and saves it in the background, saveConfirm reports it
+		}
+		else if(arg0.getSource().equals(autosave)) //if autosave toggled
+			setAutosave(autosave.isSelected());
+		else if(arg0.getSource().equals(record)) //if record button
+			startRecording();
+		else if(arg0.getSource().equals(stopRecord)) //if stop recording button
+			stopRecording();
+		else if(arg0.getSource().equals(capture)) //if start capture button
+			startCapture();
+		else if(arg0.getSource().equals(stopCapture)) //if stop capture button
+			stopCapture();
+		else if(arg0.getSource().equals(latency)) //if measure latency button
+			startLatency();
+		else if(arg0.getSource().equals(stopLatency)) //if stop measuring latency button
+			stopLatency();
+		else if(arg0.getSource().equals(share)) //if share framebuffer button
+			startSharing();
+		else if(arg0.getSource().equals(stopShare)) //if stop sharing button
+			stopSharing();
+		else if(arg0.getSource().equals(nearest)) //if nearest filter chosen
+			filter.setFilter(ScreenFilter.NEAREST);
+		else if(arg0.getSource().equals(scale2x)) //if scale2x filter chosen
+			filter.setFilter(ScreenFilter.SCALE2X);
+		else if(arg0.getSource().equals(phosphor)) //if phosphor toggled
+			filter.setPhosphor(phosphor.isSelected());
+		else if(arg0.getSource().equals(keepRunning) || arg0.getSource().equals(slowDown)
+				|| arg0.getSource().equals(pause)) //if unfocused policy chosen
+		{
+			unfocusedPolicy = keepRunning.isSelected() ? KEEP_RUNNING : slowDown.isSelected() ? SLOW_DOWN : PAUSE;
+			wakeThrottle();
+		}
+		else
+			for(int i = 0; i < profiles.length; i++)
+				if(arg0.getSource().equals(profiles[i])) //if quirk profile chosen
+					pendingProfile = QuirkProfile.PROFILES[i];
+	}
+	
+	/**
+	 * This method turns autosaving every AUTOSAVE_SECONDS on or off.
+	 * Autosaves rotate through AUTOSAVE_SLOTS files, see SaveWriter.
+	 * @param enabled true to autosave
+	 */
+	private void setAutosave(boolean enabled)
+	{
+		if(autosaveTimer != null)
+			autosaveTimer.cancel();
+		autosaveTimer = null;
+		if(!enabled)
+			return;
+		autosaveTimer = new Timer("Autosave", true);
+		long period = AUTOSAVE_SECONDS * 1000L;
+		autosaveTimer.schedule(new TimerTask()
+		{
+			public void run()
+			{
+				autosaveDue = true;
+			}
+		}, period, period);
+	}
+	
+	/**
+	 * This method starts measuring the time from each key press
+	 * to the frame that shows it, see LatencyTracer.
+	 */
+	private void startLatency()
+	{
+		latencyTracer = new LatencyTracer();
+		cpu.setLatencyTracer(latencyTracer);
+		latency.setEnabled(false);
+		stopLatency.setEnabled(true);
+	}
+	
+	/**
+	 * This method stops measuring and prints the latency histograms.
+	 */
+	private void stopLatency()
+	{
+		cpu.setLatencyTracer(null);
+		latencyTracer.report(System.out);
+		latencyTracer = null;
+		latency.setEnabled(true);
+		stopLatency.setEnabled(false);
+	}
+	
+	/**
+	 * This method publishes every displayed frame to a memory mapped file
+	 * that other processes can read, see SharedFramebuffer.
+	 */
+	private void startSharing()
+	{
+		String fileName = JOptionPane.showInputDialog("Please enter shared file name:");
+		if(fileName == null)
+			return;
+		try
+		{
+			sharedFramebuffer = new SharedFramebuffer(fileName, cpu);
+		}
+		catch(IOException e)
+		{
+			JOptionPane.showMessageDialog(null, "Cannot map shared file.");
+			return;
+		}
+		addFrameListener(sharedFramebuffer);
+		share.setEnabled(false);
+		stopShare.setEnabled(true);
+	}
+	
+	/**
+	 * This method stops publishing frames to the shared file.
+	 */
+	private void stopSharing()
+	{
+		removeFrameListener(sharedFramebuffer);
+		try
+		{
+			sharedFramebuffer.close();
+		}
+		catch(IOException e)
+		{
+			JOptionPane.showMessageDialog(null, "Cannot close shared file.");
+		}
+		sharedFramebuffer = null;
+		share.setEnabled(true);
+		stopShare.setEnabled(false);
+	}
+	
+	/**
+	 * This method starts capturing every displayed frame to a file.
+	 * Encoding happens on a background thread, see FrameCapture.
+	 */
+	private void startCapture()
+	{
+		String fileName = JOptionPane.showInputDialog("Please enter capture name:");
+		if(fileName == null)
+			return;
+		try
+		{
+			frameCapture = new FrameCapture(fileName + ".c8r", CAPTURE_FRAMES);
+		}
+		catch(IOException e)
+		{
+			JOptionPane.showMessageDialog(null, "Cannot create capture file.");
+			return;
 		}
+		addFrameListener(frameCapture);
+		capture.setEnabled(false);
+		stopCapture.setEnabled(true);
+	}
+	
+	/**
+	 * This method stops capturing and reports dropped frames.
+	 */
+	private void stopCapture()
+	{
+		removeFrameListener(frameCapture);
+		long dropped = frameCapture.stop();
+		JOptionPane.showMessageDialog(null, frameCapture.getEncoded() + " frames captured, " + dropped + " dropped.");
+		frameCapture = null;
+		capture.setEnabled(true);
+		stopCapture.setEnabled(false);
+	}
+	
+	/**
+	 * This method restarts the current rom with a new seed and records
+	 * all key input to a movie file that MoviePlayer can replay.
+	 * The restart is left to display(), so it happens between cycles.
+	 */
+	private void startRecording()
+	{
+		if(file == null)  //a movie always starts from a freshly loaded rom
+		{
+			JOptionPane.showMessageDialog(null, "Open a game before recording.");
+			return;
+		}
+		String fileName = JOptionPane.showInputDialog("Please enter movie name:");
+		if(fileName == null)
+			return;
+		
+		long seed = System.nanoTime();
+		MovieRecorder movie;
+		try
+		{
+			movie = new MovieRecorder(fileName + ".c8m", cpu.getROMHash(), seed);
+		}
+		catch(IOException e)
+		{
+			JOptionPane.showMessageDialog(null, "Cannot create movie file.");
+			return;
+		}
+		pendingMovieROM = file.getAbsolutePath();
+		pendingMovieSeed = seed;
+		pendingMovie = movie;  //display() restarts the game and starts recording
+		record.setEnabled(false);
+		stopRecord.setEnabled(true);
+	}
+	
+	/**
+	 * This method stops recording, display() closes the movie file.
+	 */
+	private void stopRecording()
+	{
+		movieStopDue = true;
+		record.setEnabled(true);
+		stopRecord.setEnabled(false);
 	}
 	
     //accessor method for file